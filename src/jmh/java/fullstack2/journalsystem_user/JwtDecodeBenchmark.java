@@ -0,0 +1,80 @@
+package fullstack2.journalsystem_user;
+
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jose.crypto.RSASSASigner;
+import com.nimbusds.jose.jwk.RSAKey;
+import com.nimbusds.jose.jwk.gen.RSAKeyGenerator;
+import com.nimbusds.jwt.JWTClaimsSet;
+import com.nimbusds.jwt.SignedJWT;
+import fullstack2.journalsystem_user.config.CachingJwtDecoder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.security.oauth2.jwt.Jwt;
+import org.springframework.security.oauth2.jwt.JwtDecoder;
+import org.springframework.security.oauth2.jwt.NimbusJwtDecoder;
+
+import java.time.Duration;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-request cost of turning a Keycloak-sized RS256 bearer token into a {@link Jwt}: full
+ * signature verification and claim parsing, against a hit in the verified-token cache.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JwtDecodeBenchmark {
+
+    private JwtDecoder verifying;
+    private JwtDecoder cached;
+    private String token;
+
+    @Setup
+    public void setup() throws Exception {
+        RSAKey key = new RSAKeyGenerator(2048).keyID("k1").generate();
+        SignedJWT jwt = new SignedJWT(
+                new JWSHeader.Builder(JWSAlgorithm.RS256).keyID("k1").build(),
+                new JWTClaimsSet.Builder()
+                        .issuer("https://keycloak.example/realms/journal")
+                        .subject("f3c1a3b0-5d1e-4c52-9d0b-6a1f0c2b7e11")
+                        .audience("account")
+                        .expirationTime(new Date(System.currentTimeMillis() + 3_600_000))
+                        .issueTime(new Date())
+                        .claim("preferred_username", "patient1")
+                        .claim("email", "patient1@example.com")
+                        .claim("realm_access", Map.of("roles", List.of("patient", "offline_access", "uma_authorization")))
+                        .claim("scope", "openid profile email")
+                        .build());
+        jwt.sign(new RSASSASigner(key));
+        token = jwt.serialize();
+
+        verifying = NimbusJwtDecoder.withPublicKey(key.toRSAPublicKey()).build();
+        cached = new CachingJwtDecoder(verifying, 10_000, Duration.ofMinutes(5));
+        cached.decode(token);
+    }
+
+    @Benchmark
+    public Jwt verifyEveryTime() {
+        return verifying.decode(token);
+    }
+
+    @Benchmark
+    public Jwt cachedHit() {
+        return cached.decode(token);
+    }
+}
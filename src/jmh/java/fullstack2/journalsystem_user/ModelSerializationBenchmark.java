@@ -0,0 +1,83 @@
+package fullstack2.journalsystem_user;
+
+import fullstack2.journalsystem_user.Models.CreateDoctorModel;
+import fullstack2.journalsystem_user.Models.CreatePatientModel;
+import fullstack2.journalsystem_user.Models.LocalUser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import tools.jackson.databind.json.JsonMapper;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Jackson cost of the response bodies, single models and a doctor's patient list,
+ * and of reading one registration record as the bulk import does per line.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ModelSerializationBenchmark {
+
+    private final JsonMapper jsonMapper = JsonMapper.builder().build();
+
+    private LocalUser localUser;
+    private CreatePatientModel patient;
+    private CreateDoctorModel doctor;
+    private List<CreatePatientModel> patients;
+    private String patientJson;
+
+    @Setup
+    public void setup() {
+        localUser = new LocalUser("kc-doc1", "doc1@example.com", "doctor");
+        localUser.setUserName("doc1");
+        patient = new CreatePatientModel("pat1", "pat1@example.com", null, "First", "Last", "patient",
+                "0701234567", "Street 1", 42, "female");
+        doctor = new CreateDoctorModel("doc1", "doc1@example.com", null, "First", "Last", "doctor", "Org", "Street 2");
+
+        patients = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            patients.add(new CreatePatientModel("pat" + i, "pat" + i + "@example.com", null, "First", "Last", "patient",
+                    "0701234567", "Street " + i, 20 + i, "female"));
+        }
+        patientJson = "{\"username\":\"pat1\",\"email\":\"pat1@example.com\",\"password\":\"pw\",\"firstName\":\"First\","
+                + "\"lastName\":\"Last\",\"telephoneNr\":\"0701234567\",\"address\":\"Street 1\",\"age\":42,\"gender\":\"female\"}";
+    }
+
+    @Benchmark
+    public byte[] writeLocalUser() {
+        return jsonMapper.writeValueAsBytes(localUser);
+    }
+
+    @Benchmark
+    public byte[] writePatient() {
+        return jsonMapper.writeValueAsBytes(patient);
+    }
+
+    @Benchmark
+    public byte[] writeDoctor() {
+        return jsonMapper.writeValueAsBytes(doctor);
+    }
+
+    @Benchmark
+    public byte[] writePatientList() {
+        return jsonMapper.writeValueAsBytes(patients);
+    }
+
+    @Benchmark
+    public CreatePatientModel readPatient() {
+        return jsonMapper.readValue(patientJson, CreatePatientModel.class);
+    }
+}
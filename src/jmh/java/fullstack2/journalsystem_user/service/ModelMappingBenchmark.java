@@ -0,0 +1,109 @@
+package fullstack2.journalsystem_user.service;
+
+import fullstack2.journalsystem_user.Models.CreateDoctorModel;
+import fullstack2.journalsystem_user.Models.CreateEmployeeModel;
+import fullstack2.journalsystem_user.Models.CreatePatientModel;
+import fullstack2.journalsystem_user.Models.LocalUser;
+import org.keycloak.representations.idm.RoleRepresentation;
+import org.keycloak.representations.idm.UserRepresentation;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of turning Keycloak users into the service's models, as done on every lookup.
+ * Run with -prof gc (the profile default) to see the allocation rate alongside ns/op.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ModelMappingBenchmark {
+
+    private UserService userService;
+    private PatientService patientService;
+    private DoctorService doctorService;
+    private EmployeeService employeeService;
+
+    private UserRepresentation patient;
+    private UserRepresentation doctor;
+    private UserRepresentation employee;
+    private List<RoleRepresentation> realmRoles;
+
+    @Setup
+    public void setup() {
+        // the mappers never touch the injected collaborators
+        userService = new UserService(null, null, null, null, null, null, null);
+        patientService = new PatientService(null, null, null, null, null, null, null);
+        doctorService = new DoctorService(null, null, null, null, null, null);
+        employeeService = new EmployeeService(null, null, null, null, null, null);
+
+        patient = user("kc-pat1", "pat1", Map.of(
+                "telephoneNr", List.of("0701234567"),
+                "address", List.of("Street 1"),
+                "age", List.of("42"),
+                "gender", List.of("female")));
+        doctor = user("kc-doc1", "doc1", Map.of(
+                "organizationName", List.of("Org"),
+                "organizationAddress", List.of("Street 2"),
+                "patients", List.of("pat1", "pat2", "pat3")));
+        employee = user("kc-emp1", "emp1", Map.of(
+                "organizationName", List.of("Org"),
+                "organizationAddress", List.of("Street 2")));
+
+        // Keycloak always adds its default roles next to the application ones
+        realmRoles = List.of(role("default-roles-journal"), role("offline_access"), role("uma_authorization"), role("doctor"));
+    }
+
+    @Benchmark
+    public LocalUser localUser() {
+        return userService.toLocalUser(doctor, UserService.roleNames(realmRoles));
+    }
+
+    @Benchmark
+    public CreatePatientModel patientModel() {
+        return patientService.toPatientModel(patient);
+    }
+
+    @Benchmark
+    public CreateDoctorModel doctorModel() {
+        return doctorService.toDoctorModel(doctor, "doctor");
+    }
+
+    @Benchmark
+    public CreateEmployeeModel employeeModel() {
+        return employeeService.toEmployeeModel(employee, "employee");
+    }
+
+    private static UserRepresentation user(String id, String username, Map<String, List<String>> attributes) {
+        UserRepresentation user = new UserRepresentation();
+        user.setId(id);
+        user.setUsername(username);
+        user.setEmail(username + "@example.com");
+        user.setFirstName("First");
+        user.setLastName("Last");
+        user.setEnabled(true);
+        user.setAttributes(new HashMap<>(attributes));
+        return user;
+    }
+
+    private static RoleRepresentation role(String name) {
+        RoleRepresentation role = new RoleRepresentation();
+        role.setName(name);
+        return role;
+    }
+}
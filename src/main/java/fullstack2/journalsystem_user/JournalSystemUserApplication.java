@@ -2,8 +2,10 @@ package fullstack2.journalsystem_user;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 @SpringBootApplication
+@EnableScheduling
 public class JournalSystemUserApplication {
 
     public static void main(String[] args) {
@@ -0,0 +1,61 @@
+package fullstack2.journalsystem_user.Models;
+
+public class ImportResultModel {
+
+    public enum Status { CREATED, SKIPPED, FAILED }
+
+    private long line;
+    private String username;
+    private Status status;
+    private String userId;
+    private String message;
+
+    public ImportResultModel(long line, String username, Status status, String userId, String message) {
+        this.line = line;
+        this.username = username;
+        this.status = status;
+        this.userId = userId;
+        this.message = message;
+    }
+    public ImportResultModel() {}
+
+    public long getLine() {
+        return line;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public String getUserId() {
+        return userId;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    public void setLine(long line) {
+        this.line = line;
+    }
+
+    public void setUsername(String username) {
+        this.username = username;
+    }
+
+    public void setStatus(Status status) {
+        this.status = status;
+    }
+
+    public void setUserId(String userId) {
+        this.userId = userId;
+    }
+
+    public void setMessage(String message) {
+        this.message = message;
+    }
+}
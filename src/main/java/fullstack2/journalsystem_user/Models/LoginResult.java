@@ -0,0 +1,39 @@
+package fullstack2.journalsystem_user.Models;
+
+public class LoginResult {
+
+    private LocalUser user;
+    private String accessToken;
+    private long expiresIn;
+
+    public LoginResult(LocalUser user, String accessToken, long expiresIn) {
+        this.user = user;
+        this.accessToken = accessToken;
+        this.expiresIn = expiresIn;
+    }
+    public LoginResult() {}
+
+    public LocalUser getUser() {
+        return user;
+    }
+
+    public String getAccessToken() {
+        return accessToken;
+    }
+
+    public long getExpiresIn() {
+        return expiresIn;
+    }
+
+    public void setUser(LocalUser user) {
+        this.user = user;
+    }
+
+    public void setAccessToken(String accessToken) {
+        this.accessToken = accessToken;
+    }
+
+    public void setExpiresIn(long expiresIn) {
+        this.expiresIn = expiresIn;
+    }
+}
@@ -0,0 +1,28 @@
+package fullstack2.journalsystem_user.Models;
+
+public class PatientAssignmentModel {
+    private String patientName;
+    private String doctorName;
+
+    public PatientAssignmentModel(String patientName, String doctorName) {
+        this.patientName = patientName;
+        this.doctorName = doctorName;
+    }
+    public PatientAssignmentModel() {}
+
+    public String getPatientName() {
+        return patientName;
+    }
+
+    public String getDoctorName() {
+        return doctorName;
+    }
+
+    public void setPatientName(String patientName) {
+        this.patientName = patientName;
+    }
+
+    public void setDoctorName(String doctorName) {
+        this.doctorName = doctorName;
+    }
+}
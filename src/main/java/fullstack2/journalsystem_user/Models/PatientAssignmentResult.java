@@ -0,0 +1,52 @@
+package fullstack2.journalsystem_user.Models;
+
+public class PatientAssignmentResult {
+
+    // UNKNOWN: the assignment did not finish in time and may or may not have been applied
+    public enum Status { ASSIGNED, ALREADY_ASSIGNED, FAILED, UNKNOWN }
+
+    private String patientName;
+    private String doctorName;
+    private Status status;
+    private String message;
+
+    public PatientAssignmentResult(String patientName, String doctorName, Status status, String message) {
+        this.patientName = patientName;
+        this.doctorName = doctorName;
+        this.status = status;
+        this.message = message;
+    }
+    public PatientAssignmentResult() {}
+
+    public String getPatientName() {
+        return patientName;
+    }
+
+    public String getDoctorName() {
+        return doctorName;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    public void setPatientName(String patientName) {
+        this.patientName = patientName;
+    }
+
+    public void setDoctorName(String doctorName) {
+        this.doctorName = doctorName;
+    }
+
+    public void setStatus(Status status) {
+        this.status = status;
+    }
+
+    public void setMessage(String message) {
+        this.message = message;
+    }
+}
@@ -1,14 +1,20 @@
 package fullstack2.journalsystem_user;
 
+import fullstack2.journalsystem_user.config.CachingJwtDecoder;
+import fullstack2.journalsystem_user.config.JwkSetCache;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.security.config.Customizer;
 import org.springframework.security.config.annotation.web.builders.HttpSecurity;
 import org.springframework.security.config.annotation.web.configuration.EnableWebSecurity;
+import org.springframework.security.oauth2.jwt.JwtValidators;
+import org.springframework.security.oauth2.jwt.NimbusJwtDecoder;
 import org.springframework.security.web.SecurityFilterChain;
 import org.springframework.web.cors.CorsConfiguration;
 import org.springframework.web.cors.CorsConfigurationSource;
 
+import java.time.Duration;
 import java.util.List;
 
 @Configuration
@@ -30,6 +36,18 @@ public class SecurityConfig {
         return http.build();
     }
 
+    // Validates tokens against the cached realm keys instead of fetching them on the request path,
+    // and verifies each distinct token only once while it is valid
+    @Bean
+    public CachingJwtDecoder keycloakJwtDecoder(JwkSetCache jwkSetCache,
+                                                @Value("${spring.security.oauth2.resourceserver.jwt.issuer-uri}") String issuerUri,
+                                                @Value("${journal.jwt-cache.maximum-size:10000}") long maximumSize,
+                                                @Value("${journal.jwt-cache.max-ttl-seconds:300}") long maxTtlSeconds) {
+        NimbusJwtDecoder decoder = NimbusJwtDecoder.withJwkSource(jwkSetCache).build();
+        decoder.setJwtValidator(JwtValidators.createDefaultWithIssuer(issuerUri));
+        return new CachingJwtDecoder(decoder, maximumSize, Duration.ofSeconds(maxTtlSeconds));
+    }
+
     @Bean
     public CorsConfigurationSource corsConfigurationSource() {
         CorsConfiguration configuration = new CorsConfiguration();
@@ -0,0 +1,57 @@
+package fullstack2.journalsystem_user.config;
+
+import fullstack2.journalsystem_user.Models.CreateDoctorModel;
+import fullstack2.journalsystem_user.Models.CreateEmployeeModel;
+import fullstack2.journalsystem_user.Models.CreatePatientModel;
+import fullstack2.journalsystem_user.Models.LocalUser;
+import fullstack2.journalsystem_user.service.LastKnown;
+import fullstack2.journalsystem_user.service.ProfileCache;
+import fullstack2.journalsystem_user.service.SingleFlight;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Duration;
+
+@Configuration
+public class CacheConfig {
+
+    @Value("${journal.profile-cache.maximum-size:10000}")
+    private long maximumSize;
+
+    @Value("${journal.profile-cache.ttl-seconds:300}")
+    private long ttlSeconds;
+
+    // How long a profile may still be served, marked stale, while Keycloak is unavailable
+    @Value("${journal.profile-cache.stale-retention-seconds:86400}")
+    private long staleRetentionSeconds;
+
+    @Bean
+    public ProfileCache<CreateDoctorModel> doctorProfileCache() {
+        return new ProfileCache<>("doctorProfiles", maximumSize, Duration.ofSeconds(ttlSeconds),
+                Duration.ofSeconds(staleRetentionSeconds), CreateDoctorModel::getUsername);
+    }
+
+    @Bean
+    public ProfileCache<CreatePatientModel> patientProfileCache() {
+        return new ProfileCache<>("patientProfiles", maximumSize, Duration.ofSeconds(ttlSeconds),
+                Duration.ofSeconds(staleRetentionSeconds), CreatePatientModel::getUsername);
+    }
+
+    @Bean
+    public ProfileCache<CreateEmployeeModel> employeeProfileCache() {
+        return new ProfileCache<>("employeeProfiles", maximumSize, Duration.ofSeconds(ttlSeconds),
+                Duration.ofSeconds(staleRetentionSeconds), CreateEmployeeModel::getUsername);
+    }
+
+    // Uncached LocalUser lookups still share concurrent identical queries
+    @Bean
+    public SingleFlight<LocalUser> userLookupFlight() {
+        return new SingleFlight<>("userLookups");
+    }
+
+    @Bean
+    public LastKnown<LocalUser> lastKnownUsers() {
+        return new LastKnown<>("users", maximumSize, Duration.ofSeconds(staleRetentionSeconds));
+    }
+}
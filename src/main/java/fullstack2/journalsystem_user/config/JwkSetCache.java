@@ -0,0 +1,114 @@
+package fullstack2.journalsystem_user.config;
+
+import com.nimbusds.jose.jwk.JWK;
+import com.nimbusds.jose.jwk.JWKSelector;
+import com.nimbusds.jose.jwk.JWKSet;
+import com.nimbusds.jose.jwk.source.JWKSource;
+import com.nimbusds.jose.proc.SecurityContext;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The realm's signing keys for JWT validation, held in memory. The set is loaded at startup and
+ * refreshed in the background, so requests never wait for Keycloak; a token signed with a key
+ * that is not in the set (a rotation) triggers one early refresh, rate limited so that forged
+ * key IDs cannot flood Keycloak. When a refresh fails the last good keys keep being served.
+ */
+@Component
+public class JwkSetCache implements JWKSource<SecurityContext>, MeterBinder {
+
+    private static final Logger log = LoggerFactory.getLogger(JwkSetCache.class);
+
+    // Same response size limit as Nimbus' own remote key source
+    private static final int SIZE_LIMIT_BYTES = 50 * 1024;
+
+    private final String jwkSetUri;
+    private final long minRefreshIntervalMs;
+    private final int timeoutMs;
+
+    private volatile JWKSet keys = new JWKSet();
+    private volatile long loadedAt = 0;
+    private volatile long lastAttemptAt = 0;
+
+    private Timer refreshSuccess;
+    private Timer refreshFailure;
+
+    public JwkSetCache(@Value("${spring.security.oauth2.resourceserver.jwt.jwk-set-uri}") String jwkSetUri,
+                       @Value("${journal.jwk.min-refresh-interval-ms:30000}") long minRefreshIntervalMs,
+                       @Value("${journal.jwk.timeout-ms:2000}") int timeoutMs) {
+        this.jwkSetUri = jwkSetUri;
+        this.minRefreshIntervalMs = minRefreshIntervalMs;
+        this.timeoutMs = timeoutMs;
+    }
+
+    @Override
+    public List<JWK> get(JWKSelector selector, SecurityContext context) {
+        List<JWK> matches = selector.select(keys);
+        if (matches.isEmpty()) {
+            refreshOnDemand(System.currentTimeMillis());
+            matches = selector.select(keys);
+        }
+        return matches;
+    }
+
+    @Scheduled(fixedDelayString = "${journal.jwk.refresh-ms:300000}", initialDelay = 0)
+    public synchronized void refresh() {
+        lastAttemptAt = System.currentTimeMillis();
+        long startedAt = System.nanoTime();
+        try {
+            JWKSet fetched = JWKSet.load(URI.create(jwkSetUri).toURL(), timeoutMs, timeoutMs, SIZE_LIMIT_BYTES);
+            if (fetched.getKeys().isEmpty()) {
+                throw new IOException("the key set is empty");
+            }
+            keys = fetched;
+            loadedAt = System.currentTimeMillis();
+            record(refreshSuccess, startedAt);
+        } catch (Exception e) {
+            record(refreshFailure, startedAt);
+            log.warn("JWK set refresh from {} failed, keeping the {} cached keys: {}",
+                    jwkSetUri, keys.getKeys().size(), e.getMessage());
+        }
+    }
+
+    public int size() {
+        return keys.getKeys().size();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        refreshSuccess = Timer.builder("journal.jwk.refresh").tag("outcome", "success").register(registry);
+        refreshFailure = Timer.builder("journal.jwk.refresh").tag("outcome", "failure").register(registry);
+        Gauge.builder("journal.jwk.keys", this, JwkSetCache::size).register(registry);
+        Gauge.builder("journal.jwk.age", this, cache -> cache.loadedAt == 0
+                        ? Double.NaN
+                        : (System.currentTimeMillis() - cache.loadedAt) / 1000.0)
+                .baseUnit("seconds")
+                .register(registry);
+    }
+
+    // Callers that found no key wait for one refresh; those queued behind it reuse its result
+    private synchronized void refreshOnDemand(long requestedAt) {
+        if (lastAttemptAt >= requestedAt || System.currentTimeMillis() - lastAttemptAt < minRefreshIntervalMs) {
+            return;
+        }
+        refresh();
+    }
+
+    private static void record(Timer timer, long startedAt) {
+        if (timer != null) {
+            timer.record(System.nanoTime() - startedAt, TimeUnit.NANOSECONDS);
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package fullstack2.journalsystem_user.config;
+
+import fullstack2.journalsystem_user.service.KeycloakCallTally;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import jakarta.servlet.http.HttpServletResponseWrapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.servlet.HandlerMapping;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+
+/**
+ * Charges every Keycloak call made while serving a request to that request. The totals are
+ * returned in the {@value #CALLS_HEADER} and {@value #TIME_HEADER} response headers, recorded per
+ * endpoint as {@code journal.keycloak.calls.per.request}, and logged when they exceed the
+ * configured budget. Responses answered from last-known data while Keycloak was unavailable
+ * carry {@value #STALE_HEADER}. The headers are written when the body starts, so for streamed
+ * responses they cover the calls made before the first record; the metric and the budget check
+ * always see the whole request.
+ */
+@Component
+public class KeycloakCallBudgetFilter extends OncePerRequestFilter {
+
+    private static final Logger log = LoggerFactory.getLogger(KeycloakCallBudgetFilter.class);
+
+    public static final String CALLS_HEADER = "X-Keycloak-Calls";
+    public static final String TIME_HEADER = "X-Keycloak-Time-Ms";
+    public static final String STALE_HEADER = "X-Data-Stale";
+
+    private final MeterRegistry registry;
+    private final int budget;
+
+    public KeycloakCallBudgetFilter(MeterRegistry registry,
+                                    @Value("${journal.keycloak.call-budget:0}") int budget) {
+        this.registry = registry;
+        this.budget = budget;
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        try (KeycloakCallTally tally = KeycloakCallTally.open()) {
+            TallyHeaders tallyResponse = new TallyHeaders(response, tally);
+            try {
+                chain.doFilter(request, tallyResponse);
+            } finally {
+                tallyResponse.writeHeaders();
+                record(request, tally);
+            }
+        }
+    }
+
+    private void record(HttpServletRequest request, KeycloakCallTally tally) {
+        Object pattern = request.getAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE);
+        String uri = pattern != null ? pattern.toString() : "UNKNOWN";
+
+        DistributionSummary.builder("journal.keycloak.calls.per.request")
+                .description("Keycloak calls made while serving one request")
+                .tag("method", request.getMethod())
+                .tag("uri", uri)
+                .register(registry)
+                .record(tally.getCalls());
+
+        if (budget > 0 && tally.getCalls() > budget) {
+            Counter.builder("journal.keycloak.call-budget.exceeded")
+                    .tag("method", request.getMethod())
+                    .tag("uri", uri)
+                    .register(registry)
+                    .increment();
+            log.warn("Keycloak call budget exceeded: {} {} made {} calls in {} ms (budget {})",
+                    request.getMethod(), uri, tally.getCalls(), tally.getTimeMs(), budget);
+        }
+    }
+
+    // Sets the tally headers while they can still be sent, i.e. before the body commits the response
+    private static final class TallyHeaders extends HttpServletResponseWrapper {
+
+        private final KeycloakCallTally tally;
+
+        TallyHeaders(HttpServletResponse response, KeycloakCallTally tally) {
+            super(response);
+            this.tally = tally;
+        }
+
+        void writeHeaders() {
+            if (!isCommitted()) {
+                setHeader(CALLS_HEADER, String.valueOf(tally.getCalls()));
+                setHeader(TIME_HEADER, String.valueOf(tally.getTimeMs()));
+                if (tally.isStale()) {
+                    setHeader(STALE_HEADER, "true");
+                }
+            }
+        }
+
+        @Override
+        public ServletOutputStream getOutputStream() throws IOException {
+            writeHeaders();
+            return super.getOutputStream();
+        }
+
+        @Override
+        public PrintWriter getWriter() throws IOException {
+            writeHeaders();
+            return super.getWriter();
+        }
+
+        @Override
+        public void flushBuffer() throws IOException {
+            writeHeaders();
+            super.flushBuffer();
+        }
+
+        @Override
+        public void sendError(int sc) throws IOException {
+            writeHeaders();
+            super.sendError(sc);
+        }
+
+        @Override
+        public void sendError(int sc, String msg) throws IOException {
+            writeHeaders();
+            super.sendError(sc, msg);
+        }
+    }
+}
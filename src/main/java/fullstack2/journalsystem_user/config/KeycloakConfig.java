@@ -1,12 +1,28 @@
 package fullstack2.journalsystem_user.config;
 
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import fullstack2.journalsystem_user.service.KeycloakCircuitBreaker;
+import jakarta.ws.rs.client.Client;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.jboss.resteasy.client.jaxrs.internal.ResteasyClientBuilderImpl;
 import org.keycloak.OAuth2Constants;
+import org.keycloak.admin.client.JacksonProvider;
 import org.keycloak.admin.client.Keycloak;
 import org.keycloak.admin.client.KeycloakBuilder;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToDoubleFunction;
+
 @Configuration
 public class KeycloakConfig {
 
@@ -22,14 +38,106 @@ public class KeycloakConfig {
     @Value("${KEYCLOAK_CLIENT_SECRET}")
     private String clientSecret;
 
+    @Value("${journal.keycloak.http.pool-size:50}")
+    private int poolSize;
+
+    @Value("${journal.keycloak.http.max-per-route:50}")
+    private int maxPerRoute;
+
+    @Value("${journal.keycloak.http.keep-alive-ms:60000}")
+    private long keepAliveMs;
+
+    @Value("${journal.keycloak.http.connect-timeout-ms:2000}")
+    private int connectTimeoutMs;
+
+    @Value("${journal.keycloak.http.read-timeout-ms:10000}")
+    private int readTimeoutMs;
+
+    // How long a request may wait for a free pooled connection before failing
+    @Value("${journal.keycloak.http.pool-timeout-ms:2000}")
+    private int poolTimeoutMs;
+
+    @Value("${journal.keycloak.http.idle-timeout-ms:30000}")
+    private long idleTimeoutMs;
+
+    // Histogram bucket boundaries of the per-operation Keycloak call timers
+    @Value("${journal.keycloak.metrics.slo-ms:10,25,50,100,250,500,1000,2500,5000}")
+    private String sloMs;
+
+    // One connection pool for every call to Keycloak: admin API and password-grant logins alike
+    @Bean(destroyMethod = "close")
+    public PoolingHttpClientConnectionManager keycloakConnectionManager() {
+        PoolingHttpClientConnectionManager connectionManager =
+                new PoolingHttpClientConnectionManager(keepAliveMs, TimeUnit.MILLISECONDS);
+        connectionManager.setMaxTotal(poolSize);
+        connectionManager.setDefaultMaxPerRoute(maxPerRoute);
+        connectionManager.setValidateAfterInactivity(2000);
+        return connectionManager;
+    }
+
+    @Bean(destroyMethod = "close")
+    public Client keycloakHttpClient(PoolingHttpClientConnectionManager keycloakConnectionManager, MeterRegistry meterRegistry,
+                                     KeycloakCircuitBreaker keycloakCircuitBreaker) {
+        RequestConfig requestConfig = RequestConfig.custom()
+                .setConnectTimeout(connectTimeoutMs)
+                .setSocketTimeout(readTimeoutMs)
+                .setConnectionRequestTimeout(poolTimeoutMs)
+                .build();
+
+        CloseableHttpClient httpClient = HttpClients.custom()
+                .setConnectionManager(keycloakConnectionManager)
+                .setConnectionManagerShared(true)
+                .setDefaultRequestConfig(requestConfig)
+                .setKeepAliveStrategy((response, context) -> keepAliveMs)
+                .evictExpiredConnections()
+                .evictIdleConnections(idleTimeoutMs, TimeUnit.MILLISECONDS)
+                .build();
+
+        return new ResteasyClientBuilderImpl()
+                .httpEngine(new TimedKeycloakEngine(httpClient, meterRegistry, slos(), keycloakCircuitBreaker))
+                .register(new JacksonProvider())
+                .build();
+    }
+
+    // Publishes leased, pending and available connections plus the configured limits. Micrometer's
+    // binder for HttpClient 4 is deprecated, so the gauges are registered here under the same names.
+    @Bean
+    public MeterBinder keycloakConnectionPoolMetrics(PoolingHttpClientConnectionManager keycloakConnectionManager) {
+        return registry -> {
+            poolGauge("httpcomponents.httpclient.pool.total.max", keycloakConnectionManager,
+                    pool -> pool.getTotalStats().getMax()).register(registry);
+            poolGauge("httpcomponents.httpclient.pool.total.connections", keycloakConnectionManager,
+                    pool -> pool.getTotalStats().getAvailable()).tag("state", "available").register(registry);
+            poolGauge("httpcomponents.httpclient.pool.total.connections", keycloakConnectionManager,
+                    pool -> pool.getTotalStats().getLeased()).tag("state", "leased").register(registry);
+            poolGauge("httpcomponents.httpclient.pool.total.pending", keycloakConnectionManager,
+                    pool -> pool.getTotalStats().getPending()).register(registry);
+            poolGauge("httpcomponents.httpclient.pool.route.max.default", keycloakConnectionManager,
+                    PoolingHttpClientConnectionManager::getDefaultMaxPerRoute).register(registry);
+        };
+    }
+
+    private static Gauge.Builder<PoolingHttpClientConnectionManager> poolGauge(
+            String name, PoolingHttpClientConnectionManager pool, ToDoubleFunction<PoolingHttpClientConnectionManager> value) {
+        return Gauge.builder(name, pool, value).tag("httpclient", "keycloak");
+    }
+
+    private Duration[] slos() {
+        return Arrays.stream(sloMs.split(","))
+                .map(String::trim)
+                .map(ms -> Duration.ofMillis(Long.parseLong(ms)))
+                .toArray(Duration[]::new);
+    }
+
     @Bean
-    public Keycloak keycloak() {
+    public Keycloak keycloak(Client keycloakHttpClient) {
         return KeycloakBuilder.builder()
                 .serverUrl(serverUrl)
                 .realm(realm)
                 .grantType(OAuth2Constants.CLIENT_CREDENTIALS) // Uses the Service Account
                 .clientId(clientId)
                 .clientSecret(clientSecret)
+                .resteasyClient(keycloakHttpClient)
                 .build();
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,37 @@
+package fullstack2.journalsystem_user.config;
+
+import org.springframework.boot.json.JsonWriter;
+import org.springframework.boot.logging.structured.StructuredLoggingJsonMembersCustomizer;
+
+import java.util.regex.Pattern;
+
+/**
+ * Masks credentials in every string written to the structured log: password, secret and token
+ * parameters (as form fields, query strings or JSON) and bearer tokens. This covers messages,
+ * exception messages and stack traces, including those of third-party libraries. Registered
+ * through {@code logging.structured.json.customizer}.
+ */
+public class LogRedaction implements StructuredLoggingJsonMembersCustomizer<Object> {
+
+    static final String MASK = "****";
+
+    // Cheap pre-check so that the common, secret-free line skips the replacements
+    private static final Pattern SENSITIVE = Pattern.compile("(?i)password|secret|token|bearer|credential");
+
+    private static final Pattern KEY_VALUE = Pattern.compile(
+            "(?i)(\"?[\\w-]*(?:password|secret|token|credential)s?\"?\\s*[:=]\\s*\"?)([^\"&,;\\s}]+)");
+    private static final Pattern BEARER = Pattern.compile("(?i)(bearer\\s+)[\\w.~+/=-]+");
+
+    @Override
+    public void customize(JsonWriter.Members<Object> members) {
+        members.applyingValueProcessor(JsonWriter.ValueProcessor.of(String.class, LogRedaction::redact));
+    }
+
+    public static String redact(String value) {
+        if (value == null || !SENSITIVE.matcher(value).find()) {
+            return value;
+        }
+        String masked = KEY_VALUE.matcher(value).replaceAll("$1" + MASK);
+        return BEARER.matcher(masked).replaceAll("$1" + MASK);
+    }
+}
@@ -0,0 +1,143 @@
+package fullstack2.journalsystem_user.config;
+
+import fullstack2.journalsystem_user.service.CallCancellation;
+import fullstack2.journalsystem_user.service.KeycloakCallTally;
+import fullstack2.journalsystem_user.service.KeycloakCircuitBreaker;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.ws.rs.client.Invocation;
+import jakarta.ws.rs.core.Response;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.jboss.resteasy.client.jaxrs.engines.ApacheHttpClient43Engine;
+import org.jboss.resteasy.client.jaxrs.internal.ClientInvocation;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * HTTP engine behind the shared Keycloak client that times every call, admin API and token
+ * endpoint alike, as {@code journal.keycloak.calls} tagged with operation, outcome and realm.
+ * The operation is derived from the method and path, so call sites need no instrumentation.
+ * Every call also passes through the {@link KeycloakCircuitBreaker}; rejected calls are not timed.
+ * Requests sent on behalf of a fan-out call are aborted when that call is cancelled.
+ */
+public class TimedKeycloakEngine extends ApacheHttpClient43Engine {
+
+    public static final String METRIC = "journal.keycloak.calls";
+
+    private final MeterRegistry registry;
+    private final Duration[] slos;
+    private final KeycloakCircuitBreaker breaker;
+    private final Map<String, Timer> timers = new ConcurrentHashMap<>();
+
+    public TimedKeycloakEngine(HttpClient httpClient, MeterRegistry registry, Duration[] slos, KeycloakCircuitBreaker breaker) {
+        super(httpClient, true);
+        this.registry = registry;
+        this.slos = slos;
+        this.breaker = breaker;
+    }
+
+    @Override
+    public Response invoke(Invocation inv) {
+        ClientInvocation invocation = (ClientInvocation) inv;
+        String path = invocation.getUri().getPath();
+        breaker.acquire();
+        long start = System.nanoTime();
+        String outcome = "UNKNOWN";
+        try {
+            Response response = super.invoke(inv);
+            outcome = outcome(response.getStatus());
+            return response;
+        } finally {
+            CallCancellation.onCancel(null);
+            long elapsed = System.nanoTime() - start;
+            // 4xx answers mean Keycloak is up; only I/O errors and 5xx count against it
+            breaker.onComplete(!outcome.equals("UNKNOWN") && !outcome.equals("SERVER_ERROR"));
+            timer(operation(invocation.getMethod(), path), outcome, realm(path)).record(elapsed, TimeUnit.NANOSECONDS);
+            KeycloakCallTally.record(elapsed);
+        }
+    }
+
+    @Override
+    protected HttpRequestBase createHttpMethod(String url, String restVerb) {
+        HttpRequestBase method = super.createHttpMethod(url, restVerb);
+        CallCancellation.onCancel(method::abort);
+        return method;
+    }
+
+    private Timer timer(String operation, String outcome, String realm) {
+        return timers.computeIfAbsent(operation + '|' + outcome + '|' + realm, key -> Timer.builder(METRIC)
+                .description("Calls from this service to Keycloak")
+                .tag("operation", operation)
+                .tag("outcome", outcome)
+                .tag("realm", realm)
+                .serviceLevelObjectives(slos)
+                .register(registry));
+    }
+
+    // Maps the Keycloak REST path onto a short, bounded set of operation names
+    private static String operation(String method, String path) {
+        if (path.endsWith("/protocol/openid-connect/token")) {
+            return "token";
+        }
+        int admin = path.indexOf("/admin/realms/");
+        if (admin < 0) {
+            return "other";
+        }
+        String[] segments = path.substring(admin + "/admin/realms/".length()).split("/");
+        if (segments.length < 2) {
+            return "realm";
+        }
+        String resource = segments[1];
+        if (resource.equals("partialImport")) {
+            return "import";
+        }
+        if (resource.equals("users")) {
+            if (segments.length == 2) {
+                return method.equals("POST") ? "create" : "search";
+            }
+            if (segments.length == 3) {
+                return switch (method) {
+                    case "PUT" -> "update";
+                    case "DELETE" -> "delete";
+                    default -> segments[2].equals("count") ? "count" : "get";
+                };
+            }
+            if (path.endsWith("/role-mappings/realm")) {
+                return switch (method) {
+                    case "POST" -> "roles.add";
+                    case "DELETE" -> "roles.remove";
+                    default -> "roles.list";
+                };
+            }
+            return "users.other";
+        }
+        if (resource.equals("roles")) {
+            return segments.length > 3 && segments[3].equals("users") ? "roles.members" : "roles.get";
+        }
+        return "other";
+    }
+
+    private static String realm(String path) {
+        String marker = "/realms/";
+        int start = path.indexOf(marker);
+        if (start < 0) {
+            return "none";
+        }
+        int end = path.indexOf('/', start + marker.length());
+        return end < 0 ? path.substring(start + marker.length()) : path.substring(start + marker.length(), end);
+    }
+
+    private static String outcome(int status) {
+        if (status < 300) {
+            return "SUCCESS";
+        }
+        if (status < 400) {
+            return "REDIRECTION";
+        }
+        return status < 500 ? "CLIENT_ERROR" : "SERVER_ERROR";
+    }
+}
@@ -3,11 +3,18 @@ package fullstack2.journalsystem_user.controller;
 import fullstack2.journalsystem_user.Models.CreateDoctorModel;
 import fullstack2.journalsystem_user.Models.CreateUserModel;
 import fullstack2.journalsystem_user.Models.LocalUser;
+import fullstack2.journalsystem_user.service.BulkImportService;
 import fullstack2.journalsystem_user.service.DoctorService;
 import fullstack2.journalsystem_user.service.UserService;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
+import java.io.IOException;
 import java.util.List;
 
 
@@ -15,11 +22,18 @@ import java.util.List;
 @RequestMapping("/api/doctor")
 public class DoctorController {
 
+    private static final Logger log = LoggerFactory.getLogger(DoctorController.class);
+
     private final DoctorService doctorService;
     private final UserService userService;
-    public DoctorController(DoctorService doctorService,  UserService userService) {
+    private final BulkImportService bulkImportService;
+    private final NdjsonWriter ndjsonWriter;
+    public DoctorController(DoctorService doctorService,  UserService userService, BulkImportService bulkImportService,
+                            NdjsonWriter ndjsonWriter) {
         this.doctorService = doctorService;
         this.userService = userService;
+        this.bulkImportService = bulkImportService;
+        this.ndjsonWriter = ndjsonWriter;
     }
 
     @PostMapping("/createDoctor")
@@ -28,7 +42,7 @@ public class DoctorController {
             doctorService.registerDoctor(request);
             return userService.findUserByUsername(request.getUsername());
         } catch (Exception e) {
-            System.out.println(e.getMessage());
+            log.warn("Could not create doctor {}: {}", request.getUsername(), e.getMessage());
         }
         return null;
     }
@@ -43,12 +57,29 @@ public class DoctorController {
         return doctorService.getDoctorByUsername(username);
     }
 
-    @GetMapping("/getDoctorsByOrganizationName/{organizationName}")
-    public List<CreateDoctorModel> getDoctorsByOrganizationName(@PathVariable("organizationName") String organizationName) {
-        List<CreateDoctorModel> doctors = doctorService.getDoctorsByOrganization(organizationName);
+    @GetMapping(path = "/getDoctorsByOrganizationName/{organizationName}", produces = MediaType.APPLICATION_JSON_VALUE)
+    public List<CreateDoctorModel> getDoctorsByOrganizationName(@PathVariable("organizationName") String organizationName,
+                                                                @RequestParam(defaultValue = "0") int offset,
+                                                                @RequestParam(required = false) Integer limit) {
+        List<CreateDoctorModel> doctors = doctorService.getDoctorsByOrganization(organizationName, PageParams.of(offset, limit));
         if (doctors.isEmpty()) {
             return null;
         }
         return doctors;
     }
+
+    @GetMapping(path = "/getDoctorsByOrganizationName/{organizationName}", produces = NdjsonWriter.NDJSON)
+    public void streamDoctorsByOrganizationName(@PathVariable("organizationName") String organizationName,
+                                                @RequestParam(defaultValue = "0") int offset,
+                                                @RequestParam(required = false) Integer limit,
+                                                HttpServletResponse response) throws IOException {
+        doctorService.streamDoctorsByOrganization(organizationName, PageParams.of(offset, limit), ndjsonWriter.open(response));
+    }
+
+    // Streams back one JSON result line per record while the upload is still being read
+    @PostMapping(path = "/importDoctors", consumes = "application/x-ndjson", produces = "application/x-ndjson")
+    public void importDoctors(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        response.setContentType("application/x-ndjson");
+        bulkImportService.importDoctors(request.getInputStream(), NdjsonWriter.stream(response));
+    }
 }
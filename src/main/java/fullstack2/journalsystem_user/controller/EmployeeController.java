@@ -4,26 +4,40 @@ import fullstack2.journalsystem_user.Models.CreateDoctorModel;
 import fullstack2.journalsystem_user.Models.CreateEmployeeModel;
 import fullstack2.journalsystem_user.Models.CreateUserModel;
 import fullstack2.journalsystem_user.Models.LocalUser;
+import fullstack2.journalsystem_user.service.BulkImportService;
 import fullstack2.journalsystem_user.service.DoctorService;
 import fullstack2.journalsystem_user.service.EmployeeService;
 import fullstack2.journalsystem_user.service.UserService;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
 import javax.print.Doc;
+import java.io.IOException;
 import java.util.List;
 
 @RestController
 @RequestMapping("/api/employee")
 public class EmployeeController {
 
+    private static final Logger log = LoggerFactory.getLogger(EmployeeController.class);
+
     DoctorService doctorService;
     UserService userService;
     EmployeeService employeeService;
-    public EmployeeController(DoctorService doctorService, UserService userService, EmployeeService employeeService) {
+    BulkImportService bulkImportService;
+    NdjsonWriter ndjsonWriter;
+    public EmployeeController(DoctorService doctorService, UserService userService, EmployeeService employeeService,
+                              BulkImportService bulkImportService, NdjsonWriter ndjsonWriter) {
         this.doctorService = doctorService;
         this.userService = userService;
         this.employeeService = employeeService;
+        this.bulkImportService = bulkImportService;
+        this.ndjsonWriter = ndjsonWriter;
     }
 
     @PostMapping("/createEmployee")
@@ -32,7 +46,7 @@ public class EmployeeController {
             employeeService.registerEmployee(request);
             return employeeService.getEmployeeByUsername(request.getUsername());
         } catch (Exception e) {
-            System.out.println(e.getMessage());
+            log.warn("Could not create employee {}: {}", request.getUsername(), e.getMessage());
         }
         return null;
     }
@@ -47,9 +61,25 @@ public class EmployeeController {
         return employeeService.getEmployeeByUsername(userName);
     }
 
-    @GetMapping(path="/getEmployeesByOrganization/{orgName}")
-    public List<CreateEmployeeModel> getEmployeesByOrganization(@PathVariable String orgName){
-        return employeeService.getEmployeesByOrganization(orgName);
+    @GetMapping(path="/getEmployeesByOrganization/{orgName}", produces = MediaType.APPLICATION_JSON_VALUE)
+    public List<CreateEmployeeModel> getEmployeesByOrganization(@PathVariable String orgName,
+                                                                @RequestParam(defaultValue = "0") int offset,
+                                                                @RequestParam(required = false) Integer limit){
+        return employeeService.getEmployeesByOrganization(orgName, PageParams.of(offset, limit));
+    }
+
+    @GetMapping(path="/getEmployeesByOrganization/{orgName}", produces = NdjsonWriter.NDJSON)
+    public void streamEmployeesByOrganization(@PathVariable String orgName,
+                                              @RequestParam(defaultValue = "0") int offset,
+                                              @RequestParam(required = false) Integer limit,
+                                              HttpServletResponse response) throws IOException {
+        employeeService.streamEmployeesByOrganization(orgName, PageParams.of(offset, limit), ndjsonWriter.open(response));
     }
 
+    // Streams back one JSON result line per record while the upload is still being read
+    @PostMapping(path = "/importEmployees", consumes = "application/x-ndjson", produces = "application/x-ndjson")
+    public void importEmployees(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        response.setContentType("application/x-ndjson");
+        bulkImportService.importEmployees(request.getInputStream(), NdjsonWriter.stream(response));
+    }
 }
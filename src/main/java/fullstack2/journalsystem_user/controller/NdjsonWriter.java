@@ -0,0 +1,79 @@
+package fullstack2.journalsystem_user.controller;
+
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.stereotype.Component;
+import tools.jackson.databind.json.JsonMapper;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.function.Consumer;
+
+/**
+ * Writes models to the response as newline-delimited JSON, flushing after every line so the
+ * client sees each item as soon as the service produces it. The response body is only opened
+ * with the first line, so headers set while the service works up to it are still sent.
+ */
+@Component
+public class NdjsonWriter {
+
+    public static final String NDJSON = "application/x-ndjson";
+
+    private final JsonMapper jsonMapper;
+
+    public NdjsonWriter(JsonMapper jsonMapper) {
+        this.jsonMapper = jsonMapper;
+    }
+
+    public <T> Consumer<T> open(HttpServletResponse response) throws IOException {
+        response.setContentType(NDJSON);
+        OutputStream out = stream(response);
+        return item -> {
+            try {
+                out.write(jsonMapper.writeValueAsBytes(item));
+                out.write('\n');
+                out.flush();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        };
+    }
+
+    // The response body, opened on the first write instead of up front
+    public static OutputStream stream(HttpServletResponse response) {
+        return new OutputStream() {
+            private OutputStream out;
+
+            @Override
+            public void write(int b) throws IOException {
+                body().write(b);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                body().write(b, off, len);
+            }
+
+            @Override
+            public void flush() throws IOException {
+                if (out != null) {
+                    out.flush();
+                }
+            }
+
+            @Override
+            public void close() throws IOException {
+                if (out != null) {
+                    out.close();
+                }
+            }
+
+            private OutputStream body() throws IOException {
+                if (out == null) {
+                    out = response.getOutputStream();
+                }
+                return out;
+            }
+        };
+    }
+}
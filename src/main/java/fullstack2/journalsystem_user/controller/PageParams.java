@@ -0,0 +1,23 @@
+package fullstack2.journalsystem_user.controller;
+
+import fullstack2.journalsystem_user.service.Page;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+/**
+ * Turns the {@code offset} and {@code limit} request parameters into a {@link Page}, answering
+ * 400 Bad Request for negative values instead of letting them surface as a server error.
+ */
+final class PageParams {
+
+    private PageParams() {
+    }
+
+    static Page of(int offset, Integer limit) {
+        try {
+            return Page.of(offset, limit);
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage());
+        }
+    }
+}
@@ -3,20 +3,31 @@ package fullstack2.journalsystem_user.controller;
 import fullstack2.journalsystem_user.Models.CreatePatientModel;
 import fullstack2.journalsystem_user.Models.CreateUserModel;
 import fullstack2.journalsystem_user.Models.LocalUser;
+import fullstack2.journalsystem_user.Models.PatientAssignmentModel;
+import fullstack2.journalsystem_user.Models.PatientAssignmentResult;
+import fullstack2.journalsystem_user.service.BulkImportService;
 import fullstack2.journalsystem_user.service.PatientService;
 import fullstack2.journalsystem_user.service.UserService;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
+import java.io.IOException;
 import java.util.List;
 
 @RestController
 @RequestMapping("/api/patient")
 public class PatientController {
     PatientService patientService;
+    BulkImportService bulkImportService;
+    NdjsonWriter ndjsonWriter;
 
-    public PatientController(PatientService patientService) {
+    public PatientController(PatientService patientService, BulkImportService bulkImportService, NdjsonWriter ndjsonWriter) {
         this.patientService = patientService;
+        this.bulkImportService = bulkImportService;
+        this.ndjsonWriter = ndjsonWriter;
     }
 
 
@@ -35,13 +46,36 @@ public class PatientController {
         return patientService.getPatientByUsername(userName);
     }
 
-    @GetMapping(path="/getPatientsByDoctorName/{doctorName}")
-    public List<CreatePatientModel> getPatientsByDoctorName(@PathVariable String doctorName) {
-        return patientService.getPatientsByDoctor(doctorName);
+    @GetMapping(path="/getPatientsByDoctorName/{doctorName}", produces = MediaType.APPLICATION_JSON_VALUE)
+    public List<CreatePatientModel> getPatientsByDoctorName(@PathVariable String doctorName,
+                                                            @RequestParam(defaultValue = "0") int offset,
+                                                            @RequestParam(required = false) Integer limit) {
+        return patientService.getPatientsByDoctor(doctorName, PageParams.of(offset, limit));
+    }
+
+    @GetMapping(path="/getPatientsByDoctorName/{doctorName}", produces = NdjsonWriter.NDJSON)
+    public void streamPatientsByDoctorName(@PathVariable String doctorName,
+                                           @RequestParam(defaultValue = "0") int offset,
+                                           @RequestParam(required = false) Integer limit,
+                                           HttpServletResponse response) throws IOException {
+        patientService.streamPatientsByDoctor(doctorName, PageParams.of(offset, limit), ndjsonWriter.open(response));
     }
 
     @PutMapping("/addDoctor/{patientName}/{doctorName}")
     public void addDoctor(@PathVariable String patientName, @PathVariable String doctorName) {
         patientService.addPatient(patientName, doctorName);
     }
+
+    // Assigns many patients at once; each doctor's panel is written in a single update
+    @PostMapping("/addDoctors")
+    public List<PatientAssignmentResult> addDoctors(@RequestBody List<PatientAssignmentModel> assignments) {
+        return patientService.addPatients(assignments);
+    }
+
+    // Streams back one JSON result line per record while the upload is still being read
+    @PostMapping(path = "/importPatients", consumes = "application/x-ndjson", produces = "application/x-ndjson")
+    public void importPatients(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        response.setContentType("application/x-ndjson");
+        bulkImportService.importPatients(request.getInputStream(), NdjsonWriter.stream(response));
+    }
 }
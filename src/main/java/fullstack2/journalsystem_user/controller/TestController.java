@@ -2,8 +2,13 @@ package fullstack2.journalsystem_user.controller;
 
 import fullstack2.journalsystem_user.Models.CreateUserModel;
 import fullstack2.journalsystem_user.Models.LocalUser;
+import fullstack2.journalsystem_user.Models.LoginResult;
 import fullstack2.journalsystem_user.service.UserService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.http.ResponseEntity;
+import org.springframework.security.core.annotation.AuthenticationPrincipal;
+import org.springframework.security.oauth2.jwt.Jwt;
 import org.springframework.web.bind.annotation.*;
 
 import static com.fasterxml.jackson.databind.type.LogicalType.Map;
@@ -11,6 +16,8 @@ import static com.fasterxml.jackson.databind.type.LogicalType.Map;
 @RestController
 public class TestController {
 
+    private static final Logger log = LoggerFactory.getLogger(TestController.class);
+
     private final UserService userService;
 
     public TestController(UserService userService) {
@@ -19,29 +26,43 @@ public class TestController {
 
     @GetMapping("/getUserByUserName")
     public LocalUser getUserByUserName(@RequestParam String username) {
-        System.out.println("Testing query for user: " + username);
+        log.debug("User lookup for {}", username);
         try {
             return userService.findUserByUsername(username);
         } catch (Exception e) {
-            System.out.println("Error communicating with Keycloak: " + e.getMessage());
+            log.warn("Error communicating with Keycloak: {}", e.getMessage());
         }
         return null;
     }
 
+    // The caller's own profile, answered from the bearer token without a Keycloak round-trip
+    @GetMapping("/me")
+    public LocalUser me(@AuthenticationPrincipal Jwt jwt) {
+        return userService.currentUser(jwt);
+    }
+
     @GetMapping("/login")
     public LocalUser login(@RequestParam String username, @RequestParam String password) {
         try {
-            System.out.println("Testing login for user: " + username);
-            System.out.println("Testing login for password: " + password);
-            LocalUser user = userService.verifyAndGetUser(username, password);
-            System.out.println(user.toString());
-            return user;
+            log.debug("Login attempt for user {}", username);
+            return userService.verifyAndGetUser(username, password);
         } catch (Exception e) {
-            System.out.println(e.getMessage());
+            log.warn("Login failed for user {}: {}", username, e.getMessage());
         }
         return null;
     }
 
+    // Credentials in the body rather than the query string; answers with the user and the issued token
+    @PostMapping("/login")
+    public ResponseEntity<LoginResult> login(@RequestBody LoginRequest request) {
+        try {
+            return ResponseEntity.ok(userService.login(request.username(), request.password()));
+        } catch (Exception e) {
+            log.warn("Login failed for user {}: {}", request.username(), e.getMessage());
+            return ResponseEntity.status(401).build();
+        }
+    }
+
     public record LoginRequest(String username, String password) {}
 
     @PostMapping("/signup")
@@ -50,7 +71,7 @@ public class TestController {
             userService.registerNewUser(request);
             return userService.findUserByUsername(request.getUsername());
         } catch (Exception e) {
-            System.out.println(e.getMessage());
+            log.warn("Could not sign up user {}: {}", request.getUsername(), e.getMessage());
         }
         return null;
     }
@@ -0,0 +1,313 @@
+package fullstack2.journalsystem_user.service;
+
+import fullstack2.journalsystem_user.Models.CreateDoctorModel;
+import fullstack2.journalsystem_user.Models.CreateEmployeeModel;
+import fullstack2.journalsystem_user.Models.CreatePatientModel;
+import fullstack2.journalsystem_user.Models.ImportResultModel;
+import jakarta.annotation.PreDestroy;
+import jakarta.ws.rs.core.Response;
+import org.keycloak.admin.client.Keycloak;
+import org.keycloak.representations.idm.PartialImportRepresentation;
+import org.keycloak.representations.idm.UserRepresentation;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import tools.jackson.databind.json.JsonMapper;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+/**
+ * Registers users from a JSON-lines stream. Records are grouped into batches that are sent to
+ * Keycloak's partial import, with a bounded number of batches in flight; reading pauses while
+ * that many are outstanding, so only those batches are ever held in memory. Results are written
+ * back one line per record, in input order, as each batch completes. A batch Keycloak rejects
+ * as a whole, with a client error, is registered record by record through the regular service
+ * path instead; when Keycloak is unavailable or fails, the batch's records are reported failed.
+ */
+@Service
+public class BulkImportService {
+
+    private static final Logger log = LoggerFactory.getLogger(BulkImportService.class);
+
+    // How one record type maps onto Keycloak and the owning service
+    private record Target<T>(Class<T> type,
+                             String defaultRole,
+                             Function<T, String> usernameOf,
+                             Function<T, String> roleOf,
+                             BiConsumer<T, String> setRole,
+                             Function<T, UserRepresentation> newUser,
+                             Function<T, String> registerOne,
+                             Registered registered) {
+    }
+
+    private interface Registered {
+        void accept(String userId, UserRepresentation user, String roleName);
+    }
+
+    // One input line: either a parsed record or the result explaining why it was rejected
+    private record Slot<T>(long line, T record, ImportResultModel rejected) {
+    }
+
+    private final Keycloak keycloak;
+    private final JsonMapper jsonMapper;
+    private final PatientService patientService;
+    private final DoctorService doctorService;
+    private final EmployeeService employeeService;
+    private final int batchSize;
+    private final int maxInFlight;
+    private final ThreadPoolExecutor executor;
+
+    @Value("${KEYCLOAK_REALM}")
+    private String realm;
+
+    public BulkImportService(Keycloak keycloak,
+                             JsonMapper jsonMapper,
+                             PatientService patientService,
+                             DoctorService doctorService,
+                             EmployeeService employeeService,
+                             @Value("${journal.import.batch-size:50}") int batchSize,
+                             @Value("${journal.import.max-in-flight:4}") int maxInFlight) {
+        this.keycloak = keycloak;
+        this.jsonMapper = jsonMapper;
+        this.patientService = patientService;
+        this.doctorService = doctorService;
+        this.employeeService = employeeService;
+        this.batchSize = batchSize;
+        this.maxInFlight = maxInFlight;
+
+        AtomicInteger threadCount = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(maxInFlight, maxInFlight,
+                60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "bulk-import-" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    public void importPatients(InputStream in, OutputStream out) throws IOException {
+        importRecords(in, out, new Target<>(CreatePatientModel.class, "patient",
+                CreatePatientModel::getUsername, CreatePatientModel::getRole, CreatePatientModel::setRole,
+                patientService::newUser, patientService::createPatient, patientService::registered));
+    }
+
+    public void importDoctors(InputStream in, OutputStream out) throws IOException {
+        importRecords(in, out, new Target<>(CreateDoctorModel.class, "doctor",
+                CreateDoctorModel::getUsername, CreateDoctorModel::getRole, CreateDoctorModel::setRole,
+                doctorService::newUser, doctorService::registerDoctor, doctorService::registered));
+    }
+
+    public void importEmployees(InputStream in, OutputStream out) throws IOException {
+        importRecords(in, out, new Target<>(CreateEmployeeModel.class, "employee",
+                CreateEmployeeModel::getUsername, CreateEmployeeModel::getRole, CreateEmployeeModel::setRole,
+                employeeService::newUser, employeeService::registerEmployee, employeeService::registered));
+    }
+
+    private <T> void importRecords(InputStream in, OutputStream out, Target<T> target) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        Deque<CompletableFuture<List<ImportResultModel>>> pending = new ArrayDeque<>();
+        List<Slot<T>> batch = new ArrayList<>(batchSize);
+
+        long lineNumber = 0;
+        String line;
+        while ((line = reader.readLine()) != null) {
+            lineNumber++;
+            if (line.isBlank()) {
+                continue;
+            }
+            batch.add(parse(line, lineNumber, target));
+            if (batch.size() == batchSize) {
+                pending.add(submit(batch, target));
+                batch = new ArrayList<>(batchSize);
+
+                // stream out whatever has finished; block on the oldest once the pipeline is full
+                while (!pending.isEmpty() && (pending.peek().isDone() || pending.size() > maxInFlight)) {
+                    write(out, pending.poll().join());
+                }
+            }
+        }
+        if (!batch.isEmpty()) {
+            pending.add(submit(batch, target));
+        }
+        while (!pending.isEmpty()) {
+            write(out, pending.poll().join());
+        }
+    }
+
+    private <T> Slot<T> parse(String line, long lineNumber, Target<T> target) {
+        T record;
+        try {
+            record = jsonMapper.readValue(line, target.type());
+        } catch (RuntimeException e) {
+            return new Slot<>(lineNumber, null, failed(lineNumber, null, "Malformed record: " + e.getMessage()));
+        }
+        String username = target.usernameOf().apply(record);
+        if (username == null || username.isBlank()) {
+            return new Slot<>(lineNumber, null, failed(lineNumber, null, "username is required"));
+        }
+        if (target.roleOf().apply(record) == null) {
+            target.setRole().accept(record, target.defaultRole());
+        }
+        return new Slot<>(lineNumber, record, null);
+    }
+
+    private <T> CompletableFuture<List<ImportResultModel>> submit(List<Slot<T>> batch, Target<T> target) {
+        return CompletableFuture.supplyAsync(KeycloakCallTally.propagate(() -> importBatch(batch, target)), executor);
+    }
+
+    private <T> List<ImportResultModel> importBatch(List<Slot<T>> batch, Target<T> target) {
+        List<UserRepresentation> users = new ArrayList<>();
+        for (Slot<T> slot : batch) {
+            if (slot.record() != null) {
+                UserRepresentation user = target.newUser().apply(slot.record());
+                user.setRealmRoles(List.of(target.roleOf().apply(slot.record())));
+                users.add(user);
+            }
+        }
+
+        Map<String, Map<String, Object>> imported;
+        try {
+            imported = users.isEmpty() ? Map.of() : partialImport(users);
+        } catch (BatchRejectedException e) {
+            log.warn("Partial import rejected, registering {} records one by one: {}", users.size(), e.getMessage());
+            return registerOneByOne(batch, target);
+        } catch (RuntimeException e) {
+            // Keycloak is unavailable or failed; one call per record would only add load. The import skips
+            // existing usernames, so the records can be sent again.
+            log.warn("Partial import failed, failing {} records: {}", users.size(), e.getMessage());
+            return failAll(batch, target, "Partial import failed: " + e.getMessage());
+        }
+
+        List<ImportResultModel> results = new ArrayList<>(batch.size());
+        int next = 0;
+        for (Slot<T> slot : batch) {
+            if (slot.record() == null) {
+                results.add(slot.rejected());
+                continue;
+            }
+            UserRepresentation user = users.get(next++);
+            Map<String, Object> outcome = imported.get(key(user.getUsername()));
+            String action = outcome != null ? String.valueOf(outcome.get("action")) : null;
+            String userId = outcome != null && outcome.get("id") != null ? String.valueOf(outcome.get("id")) : null;
+
+            if ("ADDED".equals(action) && userId != null) {
+                target.registered().accept(userId, user, target.roleOf().apply(slot.record()));
+                results.add(new ImportResultModel(slot.line(), user.getUsername(), ImportResultModel.Status.CREATED, userId, null));
+            } else if ("SKIPPED".equals(action)) {
+                results.add(new ImportResultModel(slot.line(), user.getUsername(), ImportResultModel.Status.SKIPPED,
+                        userId, "User already exists"));
+            } else {
+                results.add(failed(slot.line(), user.getUsername(), "Not reported by partial import"));
+            }
+        }
+        return results;
+    }
+
+    // Keycloak applies the whole batch in one transaction; existing usernames are skipped, not overwritten
+    @SuppressWarnings("unchecked")
+    private Map<String, Map<String, Object>> partialImport(List<UserRepresentation> users) {
+        PartialImportRepresentation partialImport = new PartialImportRepresentation();
+        partialImport.setIfResourceExists(PartialImportRepresentation.Policy.SKIP.name());
+        partialImport.setUsers(users);
+
+        try (Response response = keycloak.realm(realm).partialImport(partialImport)) {
+            if (response.getStatus() != 200) {
+                if (rejectsBatch(response.getStatus())) {
+                    throw new BatchRejectedException(response.getStatus());
+                }
+                throw new RuntimeException("Partial import failed with status: " + response.getStatus());
+            }
+            Map<String, Object> body = response.readEntity(Map.class);
+            List<Map<String, Object>> results = (List<Map<String, Object>>) body.getOrDefault("results", List.of());
+
+            Map<String, Map<String, Object>> byUsername = new HashMap<>();
+            for (Map<String, Object> result : results) {
+                if (result.get("resourceName") != null) {
+                    byUsername.put(key(String.valueOf(result.get("resourceName"))), result);
+                }
+            }
+            return byUsername;
+        }
+    }
+
+    private <T> List<ImportResultModel> registerOneByOne(List<Slot<T>> batch, Target<T> target) {
+        List<ImportResultModel> results = new ArrayList<>(batch.size());
+        for (Slot<T> slot : batch) {
+            if (slot.record() == null) {
+                results.add(slot.rejected());
+                continue;
+            }
+            String username = target.usernameOf().apply(slot.record());
+            try {
+                String userId = target.registerOne().apply(slot.record());
+                results.add(new ImportResultModel(slot.line(), username, ImportResultModel.Status.CREATED, userId, null));
+            } catch (RuntimeException e) {
+                results.add(failed(slot.line(), username, e.getMessage()));
+            }
+        }
+        return results;
+    }
+
+    private static <T> List<ImportResultModel> failAll(List<Slot<T>> batch, Target<T> target, String message) {
+        List<ImportResultModel> results = new ArrayList<>(batch.size());
+        for (Slot<T> slot : batch) {
+            results.add(slot.record() == null ? slot.rejected()
+                    : failed(slot.line(), target.usernameOf().apply(slot.record()), message));
+        }
+        return results;
+    }
+
+    private void write(OutputStream out, List<ImportResultModel> results) throws IOException {
+        for (ImportResultModel result : results) {
+            out.write(jsonMapper.writeValueAsBytes(result));
+            out.write('\n');
+        }
+        out.flush();
+    }
+
+    private static ImportResultModel failed(long line, String username, String message) {
+        return new ImportResultModel(line, username, ImportResultModel.Status.FAILED, null, message);
+    }
+
+    // Keycloak refused the batch itself; auth failures and throttling would refuse single records as well
+    private static boolean rejectsBatch(int status) {
+        return status >= 400 && status < 500 && status != 401 && status != 403 && status != 429;
+    }
+
+    // Keycloak stores usernames in lower case
+    private static String key(String username) {
+        return username.toLowerCase(Locale.ROOT);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    private static final class BatchRejectedException extends RuntimeException {
+        BatchRejectedException(int status) {
+            super("Partial import rejected with status: " + status);
+        }
+    }
+}
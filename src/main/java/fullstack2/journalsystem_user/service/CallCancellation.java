@@ -0,0 +1,52 @@
+package fullstack2.journalsystem_user.service;
+
+import java.util.function.Supplier;
+
+/**
+ * Lets a fan-out call that timed out abort the Keycloak request its worker is blocked in. The
+ * worker runs the call with its cancellation bound to the thread and the HTTP engine registers
+ * how to abort each request it sends; a blocking socket read does not react to interrupts, an
+ * abort does.
+ */
+public final class CallCancellation {
+
+    private static final ThreadLocal<CallCancellation> CURRENT = new ThreadLocal<>();
+
+    private volatile boolean cancelled;
+    private volatile Runnable abort;
+
+    public <R> R run(Supplier<R> call) {
+        CallCancellation outer = CURRENT.get();
+        CURRENT.set(this);
+        try {
+            return call.get();
+        } finally {
+            if (outer == null) {
+                CURRENT.remove();
+            } else {
+                CURRENT.set(outer);
+            }
+        }
+    }
+
+    // Called by the HTTP engine for the request it is about to send, and with null once it is done
+    public static void onCancel(Runnable abort) {
+        CallCancellation cancellation = CURRENT.get();
+        if (cancellation == null) {
+            return;
+        }
+        cancellation.abort = abort;
+        if (abort != null && cancellation.cancelled) {
+            abort.run();
+        }
+    }
+
+    // Safe to call from any thread, and more than once
+    public void cancel() {
+        cancelled = true;
+        Runnable current = abort;
+        if (current != null) {
+            current.run();
+        }
+    }
+}
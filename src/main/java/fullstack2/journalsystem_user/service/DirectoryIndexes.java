@@ -0,0 +1,147 @@
+package fullstack2.journalsystem_user.service;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Secondary indexes over {@link UserDirectory} entries: organization to user IDs per role,
+ * role to user IDs and doctor to the IDs of their patients. Mutations are serialised by the
+ * directory; lookups are lock-free.
+ */
+class DirectoryIndexes {
+
+    private final Map<String, Map<String, Set<String>>> byOrganization = new ConcurrentHashMap<>();
+    private final Map<String, Set<String>> byRole = new ConcurrentHashMap<>();
+    private final Map<String, List<String>> patientsByDoctor = new ConcurrentHashMap<>();
+    // lowercased patient username -> doctors listing it, so late-arriving patients attach to panels
+    private final Map<String, Set<String>> doctorsByPatientUsername = new ConcurrentHashMap<>();
+
+    Set<String> organizationMembers(String roleName, String orgName) {
+        Map<String, Set<String>> orgs = byOrganization.get(roleName);
+        Set<String> ids = orgs != null && orgName != null ? orgs.get(orgName) : null;
+        return ids != null ? ids : Set.of();
+    }
+
+    Set<String> roleMembers(String roleName) {
+        return byRole.getOrDefault(roleName, Set.of());
+    }
+
+    List<String> patientsOf(String doctorId) {
+        return patientsByDoctor.getOrDefault(doctorId, List.of());
+    }
+
+    void add(UserDirectory.Entry entry, Map<String, String> idByUsername, Map<String, UserDirectory.Entry> byId) {
+        String userId = entry.user().getId();
+        String orgName = entry.attribute("organizationName");
+        for (String roleName : entry.roles()) {
+            byRole.computeIfAbsent(roleName, r -> ConcurrentHashMap.newKeySet()).add(userId);
+            if (orgName != null) {
+                byOrganization.computeIfAbsent(roleName, r -> new ConcurrentHashMap<>())
+                        .computeIfAbsent(orgName, o -> ConcurrentHashMap.newKeySet())
+                        .add(userId);
+            }
+        }
+
+        if (entry.hasRole("doctor")) {
+            for (String patientUsername : entry.attributeValues("patients")) {
+                if (patientUsername != null) {
+                    doctorsByPatientUsername.computeIfAbsent(key(patientUsername), p -> ConcurrentHashMap.newKeySet())
+                            .add(userId);
+                }
+            }
+            resolvePanel(entry, idByUsername);
+        }
+
+        // doctors that already list this user now resolve it
+        if (entry.user().getUsername() != null) {
+            for (String doctorId : doctorsByPatientUsername.getOrDefault(key(entry.user().getUsername()), Set.of())) {
+                UserDirectory.Entry doctor = byId.get(doctorId);
+                if (doctor != null && !doctorId.equals(userId)) {
+                    resolvePanel(doctor, idByUsername);
+                }
+            }
+        }
+    }
+
+    void remove(UserDirectory.Entry entry, Map<String, String> idByUsername, Map<String, UserDirectory.Entry> byId) {
+        String userId = entry.user().getId();
+        String orgName = entry.attribute("organizationName");
+        for (String roleName : entry.roles()) {
+            removeFrom(byRole, roleName, userId);
+            Map<String, Set<String>> orgs = byOrganization.get(roleName);
+            if (orgs != null && orgName != null) {
+                removeFrom(orgs, orgName, userId);
+            }
+        }
+
+        if (entry.hasRole("doctor")) {
+            for (String patientUsername : entry.attributeValues("patients")) {
+                if (patientUsername != null) {
+                    removeFrom(doctorsByPatientUsername, key(patientUsername), userId);
+                }
+            }
+            patientsByDoctor.remove(userId);
+        }
+
+        if (entry.user().getUsername() != null) {
+            for (String doctorId : doctorsByPatientUsername.getOrDefault(key(entry.user().getUsername()), Set.of())) {
+                UserDirectory.Entry doctor = byId.get(doctorId);
+                if (doctor != null && !doctorId.equals(userId)) {
+                    resolvePanel(doctor, idByUsername);
+                }
+            }
+        }
+    }
+
+    int organizationSize() {
+        return byOrganization.values().stream()
+                .flatMap(orgs -> orgs.values().stream())
+                .mapToInt(Set::size)
+                .sum();
+    }
+
+    int roleSize() {
+        return byRole.values().stream().mapToInt(Set::size).sum();
+    }
+
+    int panelSize() {
+        return patientsByDoctor.values().stream().mapToInt(List::size).sum();
+    }
+
+    // Panel order follows the doctor's attribute; usernames not (yet) in the directory are left out
+    private void resolvePanel(UserDirectory.Entry doctor, Map<String, String> idByUsername) {
+        List<String> patientIds = new ArrayList<>();
+        for (String patientUsername : doctor.attributeValues("patients")) {
+            String patientId = patientUsername != null ? idByUsername.get(key(patientUsername)) : null;
+            if (patientId != null) {
+                patientIds.add(patientId);
+            }
+        }
+        patientsByDoctor.put(doctor.user().getId(), List.copyOf(patientIds));
+    }
+
+    private static void removeFrom(Map<String, Set<String>> index, String key, String userId) {
+        index.computeIfPresent(key, (k, ids) -> {
+            ids.remove(userId);
+            return ids.isEmpty() ? null : ids;
+        });
+    }
+
+    private static String key(String username) {
+        return username.toLowerCase(Locale.ROOT);
+    }
+
+    static DirectoryIndexes build(Collection<UserDirectory.Entry> entries, Map<String, String> idByUsername,
+                                  Map<String, UserDirectory.Entry> byId) {
+        DirectoryIndexes indexes = new DirectoryIndexes();
+        for (UserDirectory.Entry entry : entries) {
+            indexes.add(entry, idByUsername, byId);
+        }
+        return indexes;
+    }
+}
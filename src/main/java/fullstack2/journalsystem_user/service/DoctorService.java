@@ -3,6 +3,7 @@ package fullstack2.journalsystem_user.service;
 import fullstack2.journalsystem_user.Models.CreateDoctorModel;
 import fullstack2.journalsystem_user.Models.CreateUserModel;
 import fullstack2.journalsystem_user.Models.LocalUser;
+import jakarta.ws.rs.NotFoundException;
 import jakarta.ws.rs.core.Response;
 import org.keycloak.OAuth2Constants;
 import org.keycloak.admin.client.CreatedResponseUtil;
@@ -11,18 +12,35 @@ import org.keycloak.admin.client.KeycloakBuilder;
 import org.keycloak.representations.idm.CredentialRepresentation;
 import org.keycloak.representations.idm.RoleRepresentation;
 import org.keycloak.representations.idm.UserRepresentation;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 @Service
 public class DoctorService {
+
+    private static final Logger log = LoggerFactory.getLogger(DoctorService.class);
+    private static final int PAGE_SIZE = 100;
+
     private final Keycloak keycloak;
+    private final RoleRegistry roleRegistry;
+    private final ProfileCache<CreateDoctorModel> doctorCache;
+    private final FanOutExecutor fanOut;
+    private final UserDirectory directory;
+    private final NegativeCache negativeCache;
 
     @Value("${KEYCLOAK_REALM}")
     private String realm;
@@ -33,11 +51,41 @@ public class DoctorService {
     @Value("${KEYCLOAK_CLIENT_SECRET}")
     private String clientSecret;
 
-    public DoctorService(Keycloak keycloak) {
+    public DoctorService(Keycloak keycloak, RoleRegistry roleRegistry, ProfileCache<CreateDoctorModel> doctorCache,
+                         FanOutExecutor fanOut, UserDirectory directory, NegativeCache negativeCache) {
         this.keycloak = keycloak;
+        this.roleRegistry = roleRegistry;
+        this.doctorCache = doctorCache;
+        this.fanOut = fanOut;
+        this.directory = directory;
+        this.negativeCache = negativeCache;
+    }
+
+    // Returns the Keycloak ID of the new user
+    public String registerDoctor(CreateDoctorModel request) {
+        UserRepresentation user = newUser(request);
+
+        // 4. Create User in Keycloak
+        Response response = keycloak.realm(realm).users().create(user);
+
+        if (response.getStatus() == 201) {
+            // 5. Get the created User ID from the response header
+            String userId = CreatedResponseUtil.getCreatedId(response);
+
+            // 6. Assign the Realm Role (e.g., "doctor")
+            roleRegistry.assignRealmRole(userId, request.getRole());
+            registered(userId, user, request.getRole());
+
+            log.info("Doctor registered successfully with ID: {}", userId);
+            return userId;
+        } else {
+            // If status is 409, it usually means user already exists
+            throw new RuntimeException("Keycloak doctor creation failed with status: " + response.getStatus());
+        }
     }
 
-    public void registerDoctor(CreateDoctorModel request) {
+    // Builds the Keycloak user for a registration; shared with bulk import
+    UserRepresentation newUser(CreateDoctorModel request) {
         // 1. Prepare User Representation
         UserRepresentation user = new UserRepresentation();
         user.setUsername(request.getUsername());
@@ -58,33 +106,29 @@ public class DoctorService {
         passwordCred.setType(CredentialRepresentation.PASSWORD);
         passwordCred.setValue(request.getPassword());
         user.setCredentials(Collections.singletonList(passwordCred));
-
-        // 4. Create User in Keycloak
-        Response response = keycloak.realm(realm).users().create(user);
-
-        if (response.getStatus() == 201) {
-            // 5. Get the created User ID from the response header
-            String userId = CreatedResponseUtil.getCreatedId(response);
-
-            // 6. Assign the Realm Role (e.g., "doctor")
-            assignRealmRole(userId, request.getRole());
-
-            System.out.println("Doctor registered successfully with ID: " + userId);
-        } else {
-            // If status is 409, it usually means user already exists
-            throw new RuntimeException("Keycloak doctor creation failed with status: " + response.getStatus());
-        }
+        return user;
     }
 
-    private void assignRealmRole(String userId, String roleName) {
-        // Fetch the role representation from the realm
-        RoleRepresentation role = keycloak.realm(realm).roles().get(roleName).toRepresentation();
-
-        // Add the role to the user at the realm level
-        keycloak.realm(realm).users().get(userId).roles().realmLevel().add(Collections.singletonList(role));
+    // Bookkeeping once a user exists in Keycloak with its role assigned
+    void registered(String userId, UserRepresentation user, String roleName) {
+        directory.put(userId, user, roleName);
+        doctorCache.invalidate(userId, user.getUsername());
+        negativeCache.forget(userId, user.getUsername());
     }
 
     public CreateDoctorModel getDoctorById(String userId) {
+        return doctorCache.getById(userId, this::loadDoctorById);
+    }
+
+    private CreateDoctorModel loadDoctorById(String userId) {
+        Optional<UserDirectory.Entry> replica = directory.findById(userId);
+        if (replica.isPresent()) {
+            return toDoctorModel(replica.get().user(), "doctor");
+        }
+        if (negativeCache.isUnknownId(userId)) {
+            throw new RuntimeException("Doctor not found with ID: " + userId);
+        }
+
         // 1. Fetch the user directly by their unique ID
         // This returns the full representation including attributes
         UserRepresentation userRep;
@@ -93,6 +137,9 @@ public class DoctorService {
                     .users()
                     .get(userId)
                     .toRepresentation();
+        } catch (NotFoundException e) {
+            negativeCache.recordUnknownId(userId);
+            throw e;
         } catch (Error e) {
             throw new RuntimeException("Doctor not found with ID: " + userId);
         }
@@ -111,11 +158,7 @@ public class DoctorService {
                 .realmLevel()
                 .listAll();
 
-        String roleName = roles.stream()
-                .map(RoleRepresentation::getName)
-                .filter(name -> name.equalsIgnoreCase("doctor"))
-                .findFirst()
-                .orElse("doctor");
+        String roleName = roleName(roles);
 
         // 4. Return the populated model
         return new CreateDoctorModel(
@@ -131,12 +174,25 @@ public class DoctorService {
     }
 
     public CreateDoctorModel getDoctorByUsername(String username) {
+        return doctorCache.getByUsername(username, this::loadDoctorByUsername);
+    }
+
+    private CreateDoctorModel loadDoctorByUsername(String username) {
+        Optional<UserDirectory.Entry> replica = directory.findByUsername(username);
+        if (replica.isPresent()) {
+            return toDoctorModel(replica.get().user(), "doctor");
+        }
+        if (negativeCache.isUnknownUsername(username)) {
+            throw new RuntimeException("Doctor not found with username: " + username);
+        }
+
         // 1. Search for the user by username
         List<UserRepresentation> users = keycloak.realm(realm)
                 .users()
                 .searchByUsername(username, true);
 
         if (users.isEmpty()) {
+            negativeCache.recordUnknownUsername(username);
             throw new RuntimeException("Doctor not found with username: " + username);
         }
 
@@ -151,7 +207,7 @@ public class DoctorService {
         String orgName = getAttributeValue(attributes, "organizationName");
         String orgAddress = getAttributeValue(attributes, "organizationAddress");
 
-        // 3. Fetch the Role (optional: assumes they have one primary realm role)
+        // 3. Fetch the Role
         List<RoleRepresentation> roles = keycloak.realm(realm)
                 .users()
                 .get(userRep.getId())
@@ -159,7 +215,7 @@ public class DoctorService {
                 .realmLevel()
                 .listAll();
 
-        String roleName = roles.isEmpty() ? "doctor" : roles.get(0).getName();
+        String roleName = roleName(roles);
 
         // 4. Initialize the Model (setting password to null as requested)
         return new CreateDoctorModel(
@@ -175,45 +231,83 @@ public class DoctorService {
     }
 
     public List<CreateDoctorModel> getDoctorsByOrganization(String orgName) {
-        // 1. Search users by attribute
-        List<UserRepresentation> briefUsers = keycloak.realm(realm)
-                .users()
-                .searchByAttributes("organizationName:" + orgName);
-
-        return briefUsers.stream()
-                .filter(briefUser -> {
-                    // 2. Check if the user has the "doctor" role
-                    List<RoleRepresentation> roles = keycloak.realm(realm)
-                            .users()
-                            .get(briefUser.getId())
-                            .roles()
-                            .realmLevel()
-                            .listAll();
-
-                    return roles.stream()
-                            .anyMatch(role -> role.getName().equalsIgnoreCase("doctor"));
-                })
-                .map(briefUser -> {
-                    // 3. Fetch full representation for the attributes
-                    UserRepresentation fullUser = keycloak.realm(realm)
-                            .users()
-                            .get(briefUser.getId())
-                            .toRepresentation();
-
-                    Map<String, List<String>> attributes = fullUser.getAttributes();
-
-                    return new CreateDoctorModel(
-                            fullUser.getUsername(),
-                            fullUser.getEmail(),
-                            null,
-                            fullUser.getFirstName(),
-                            fullUser.getLastName(),
-                            "doctor",
-                            getAttributeValue(attributes, "organizationName"),
-                            getAttributeValue(attributes, "organizationAddress")
-                    );
-                })
-                .collect(Collectors.toList());
+        return getDoctorsByOrganization(orgName, Page.ALL);
+    }
+
+    public List<CreateDoctorModel> getDoctorsByOrganization(String orgName, Page page) {
+        List<CreateDoctorModel> doctors = new ArrayList<>();
+        streamDoctorsByOrganization(orgName, page, doctors::add);
+        return doctors;
+    }
+
+    // Hands each doctor to the sink as soon as it is known; Keycloak pages are only fetched until the page is full
+    public void streamDoctorsByOrganization(String orgName, Page page, Consumer<CreateDoctorModel> sink) {
+        Optional<List<UserDirectory.Entry>> replica = directory.findByOrganization(orgName, "doctor");
+        if (replica.isPresent()) {
+            // same order as Keycloak's search, so offsets mean the same on both paths
+            replica.get().stream()
+                    .map(UserDirectory.Entry::user)
+                    .sorted(Comparator.comparing(UserRepresentation::getUsername, Comparator.nullsLast(Comparator.naturalOrder())))
+                    .skip(page.offset())
+                    .limit(page.limit())
+                    .map(user -> toDoctorModel(user, "doctor"))
+                    .forEach(sink);
+            return;
+        }
+
+        // 1. Resolve role membership once instead of listing roles per user, next to the search
+        CompletableFuture<Set<String>> doctorIdsFuture = fanOut.submit(() -> roleRegistry.memberIds("doctor"));
+        Set<String> doctorIds = null;
+
+        // 2. Search users by attribute; full representations already carry the attributes
+        int skipped = 0;
+        int emitted = 0;
+        int first = 0;
+        List<UserRepresentation> users;
+        do {
+            users = keycloak.realm(realm)
+                    .users()
+                    .searchByAttributes(first, PAGE_SIZE, null, false, "organizationName:" + orgName);
+            if (doctorIds == null) {
+                doctorIds = FanOutExecutor.await(doctorIdsFuture);
+            }
+            for (UserRepresentation user : users) {
+                if (!doctorIds.contains(user.getId())) {
+                    continue;
+                }
+                if (skipped < page.offset()) {
+                    skipped++;
+                } else if (emitted < page.limit()) {
+                    sink.accept(toDoctorModel(user, "doctor"));
+                    emitted++;
+                }
+            }
+            first += PAGE_SIZE;
+        } while (users.size() == PAGE_SIZE && emitted < page.limit());
+    }
+
+    CreateDoctorModel toDoctorModel(UserRepresentation user, String roleName) {
+        Map<String, List<String>> attributes = user.getAttributes();
+
+        return new CreateDoctorModel(
+                user.getUsername(),
+                user.getEmail(),
+                null,
+                user.getFirstName(),
+                user.getLastName(),
+                roleName,
+                getAttributeValue(attributes, "organizationName"),
+                getAttributeValue(attributes, "organizationAddress")
+        );
+    }
+
+    // The same for lookups by ID and by username, which share cache entries
+    private static String roleName(List<RoleRepresentation> roles) {
+        return roles.stream()
+                .map(RoleRepresentation::getName)
+                .filter(name -> name.equalsIgnoreCase("doctor"))
+                .findFirst()
+                .orElse("doctor");
     }
 
     // Helper method to handle null checks for attributes
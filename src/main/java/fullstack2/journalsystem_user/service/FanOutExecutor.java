@@ -0,0 +1,191 @@
+package fullstack2.journalsystem_user.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Runs independent Keycloak lookups concurrently with a bounded number of calls in flight.
+ * Every call gets its own timeout, counted from the moment it starts executing; a call that
+ * times out is cancelled, so its worker and concurrency slot are freed for the next one.
+ * With {@code spring.threads.virtual.enabled} on Java 21+ the calls run on virtual threads;
+ * on an older runtime the flag has no effect and a warning is logged at startup.
+ */
+@Component
+public class FanOutExecutor {
+
+    private static final Logger log = LoggerFactory.getLogger(FanOutExecutor.class);
+
+    private final Executor executor;
+    private final long callTimeoutMs;
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    private final Timer queueTimer;
+    private final Timer callTimer;
+    private final Counter failures;
+    private final Counter timeouts;
+
+    public FanOutExecutor(@Value("${journal.fan-out.max-concurrency:16}") int maxConcurrency,
+                          @Value("${journal.fan-out.call-timeout-ms:5000}") long callTimeoutMs,
+                          @Value("${spring.threads.virtual.enabled:false}") boolean virtualThreads,
+                          MeterRegistry registry) {
+        boolean virtualThreadsAvailable = Runtime.version().feature() >= 21;
+        if (virtualThreads && !virtualThreadsAvailable) {
+            log.warn("spring.threads.virtual.enabled is set, but Java {} has no virtual threads; "
+                    + "requests and fan-out calls run on platform threads. Build and run on Java 21 (-Pjava21).",
+                    Runtime.version().feature());
+        }
+        if (virtualThreads && virtualThreadsAvailable) {
+            SimpleAsyncTaskExecutor virtualExecutor = new SimpleAsyncTaskExecutor("keycloak-fan-out-");
+            virtualExecutor.setVirtualThreads(true);
+            virtualExecutor.setConcurrencyLimit(maxConcurrency);
+            this.executor = virtualExecutor;
+        } else {
+            AtomicInteger threadCount = new AtomicInteger();
+            ThreadPoolExecutor pool = new ThreadPoolExecutor(maxConcurrency, maxConcurrency,
+                    60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+                    runnable -> {
+                        Thread thread = new Thread(runnable, "keycloak-fan-out-" + threadCount.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+            pool.allowCoreThreadTimeOut(true);
+            this.executor = pool;
+        }
+        this.callTimeoutMs = callTimeoutMs;
+
+        this.queueTimer = Timer.builder("journal.fan-out.queue").register(registry);
+        this.callTimer = Timer.builder("journal.fan-out.call").register(registry);
+        this.failures = Counter.builder("journal.fan-out.failures").tag("cause", "error").register(registry);
+        this.timeouts = Counter.builder("journal.fan-out.failures").tag("cause", "timeout").register(registry);
+        Gauge.builder("journal.fan-out.in-flight", inFlight, AtomicInteger::get).register(registry);
+    }
+
+    /**
+     * Applies the call to every input concurrently and returns the results in input order.
+     * Inputs whose call returns null, fails or times out are left out of the result.
+     */
+    public <T, R> List<R> mapAll(List<T> inputs, Function<T, R> call) {
+        List<R> results = new ArrayList<>(inputs.size());
+        forEachOrdered(inputs, call, results::add);
+        return results;
+    }
+
+    /**
+     * Like {@link #mapAll}, but hands each result to the sink as soon as it and every result
+     * before it are available, instead of waiting for the slowest call.
+     */
+    public <T, R> void forEachOrdered(List<T> inputs, Function<T, R> call, Consumer<R> sink) {
+        List<CompletableFuture<R>> futures = new ArrayList<>(inputs.size());
+        for (T input : inputs) {
+            futures.add(submit(() -> call.apply(input)).handle((result, error) -> {
+                if (error != null) {
+                    log.warn("Fan-out call for {} skipped: {}", input, describe(error));
+                    return null;
+                }
+                return result;
+            }));
+        }
+        for (CompletableFuture<R> future : futures) {
+            R result = future.join();
+            if (result != null) {
+                sink.accept(result);
+            }
+        }
+    }
+
+    public <R> CompletableFuture<R> submit(Supplier<R> call) {
+        Supplier<R> charged = KeycloakCallTally.propagate(call);
+        CallCancellation cancellation = new CallCancellation();
+        CompletableFuture<R> result = new CompletableFuture<>();
+        long submittedAt = System.nanoTime();
+        FutureTask<Void> worker = new FutureTask<>(() -> {
+            long startedAt = System.nanoTime();
+            queueTimer.record(startedAt - submittedAt, TimeUnit.NANOSECONDS);
+            if (result.isDone()) {
+                return;
+            }
+            result.orTimeout(callTimeoutMs, TimeUnit.MILLISECONDS);
+            inFlight.incrementAndGet();
+            try {
+                result.complete(cancellation.run(charged));
+            } catch (Throwable e) {
+                result.completeExceptionally(e);
+            } finally {
+                inFlight.decrementAndGet();
+                callTimer.record(System.nanoTime() - startedAt, TimeUnit.NANOSECONDS);
+            }
+        }, null);
+        executor.execute(worker);
+        return result.whenComplete((ignored, error) -> {
+            if (unwrap(error) instanceof TimeoutException) {
+                timeouts.increment();
+                // free the worker: abort its Keycloak request and interrupt any wait it is in
+                cancellation.cancel();
+                worker.cancel(true);
+            } else if (error != null) {
+                failures.increment();
+            }
+        });
+    }
+
+    /**
+     * Waits for a future from {@link #submit} and rethrows its failure unwrapped.
+     */
+    public static <R> R await(CompletableFuture<R> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            Throwable cause = unwrap(e);
+            if (cause instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw new RuntimeException(cause);
+        }
+    }
+
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (executor instanceof ExecutorService pool) {
+            pool.shutdownNow();
+        } else if (executor instanceof SimpleAsyncTaskExecutor virtualExecutor) {
+            virtualExecutor.close();
+        }
+    }
+
+    private static Throwable unwrap(Throwable error) {
+        return error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+    }
+
+    private static String describe(Throwable error) {
+        Throwable cause = unwrap(error);
+        return cause instanceof TimeoutException ? "timed out" : cause.getMessage();
+    }
+}
@@ -0,0 +1,89 @@
+package fullstack2.journalsystem_user.service;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Counts and times the Keycloak calls made on behalf of one unit of work, normally one HTTP
+ * request. The tally is bound to the opening thread; work handed to other threads carries it
+ * along through {@link #propagate}, so fan-out and bulk import calls are charged to the request
+ * that caused them. The tally also notes when any part of the answer was served from last-known
+ * data because Keycloak was unavailable.
+ */
+public final class KeycloakCallTally implements AutoCloseable {
+
+    private static final ThreadLocal<KeycloakCallTally> CURRENT = new ThreadLocal<>();
+
+    private final AtomicInteger calls = new AtomicInteger();
+    private final AtomicLong nanos = new AtomicLong();
+    private volatile boolean stale;
+    private final KeycloakCallTally previous;
+
+    private KeycloakCallTally(KeycloakCallTally previous) {
+        this.previous = previous;
+    }
+
+    public static KeycloakCallTally open() {
+        KeycloakCallTally tally = new KeycloakCallTally(CURRENT.get());
+        CURRENT.set(tally);
+        return tally;
+    }
+
+    // Called by the HTTP engine for every finished Keycloak call
+    public static void record(long elapsedNanos) {
+        KeycloakCallTally tally = CURRENT.get();
+        if (tally != null) {
+            tally.calls.incrementAndGet();
+            tally.nanos.addAndGet(elapsedNanos);
+        }
+    }
+
+    public static void markStale() {
+        KeycloakCallTally tally = CURRENT.get();
+        if (tally != null) {
+            tally.stale = true;
+        }
+    }
+
+    public static <R> Supplier<R> propagate(Supplier<R> work) {
+        KeycloakCallTally tally = CURRENT.get();
+        if (tally == null) {
+            return work;
+        }
+        return () -> {
+            KeycloakCallTally outer = CURRENT.get();
+            CURRENT.set(tally);
+            try {
+                return work.get();
+            } finally {
+                restore(outer);
+            }
+        };
+    }
+
+    public int getCalls() {
+        return calls.get();
+    }
+
+    public long getTimeMs() {
+        return nanos.get() / 1_000_000;
+    }
+
+    public boolean isStale() {
+        return stale;
+    }
+
+    @Override
+    public void close() {
+        restore(previous);
+    }
+
+    private static void restore(KeycloakCallTally tally) {
+        if (tally == null) {
+            CURRENT.remove();
+        } else {
+            CURRENT.set(tally);
+        }
+    }
+}
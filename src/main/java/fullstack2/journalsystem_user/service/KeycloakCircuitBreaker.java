@@ -0,0 +1,182 @@
+package fullstack2.journalsystem_user.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Circuit breaker and bulkhead for every call to Keycloak, applied in the HTTP engine. The
+ * bulkhead caps concurrent calls so a slow Keycloak cannot absorb every request thread. The
+ * breaker opens when the failure rate (I/O errors and 5xx) over the last calls reaches the
+ * threshold, rejects calls while open, then lets a few trial calls through and closes again
+ * if they all succeed. Rejected calls fail at once with {@link KeycloakUnavailableException}.
+ */
+@Component
+public class KeycloakCircuitBreaker implements MeterBinder {
+
+    private static final Logger log = LoggerFactory.getLogger(KeycloakCircuitBreaker.class);
+
+    public enum State { CLOSED, OPEN, HALF_OPEN }
+
+    private final int failureRateThreshold;
+    private final int minimumCalls;
+    private final long openMs;
+    private final int halfOpenCalls;
+    private final int maxConcurrent;
+    private final long maxWaitMs;
+    private final Semaphore bulkhead;
+
+    // Outcomes of the last calls while closed, as a ring buffer; true is a failure
+    private final boolean[] window;
+    private int recorded;
+    private int next;
+    private int failures;
+
+    private State state = State.CLOSED;
+    private long openedAt;
+    private int trialsStarted;
+    private int trialsSucceeded;
+
+    private MeterRegistry registry;
+    private Counter rejectedOpen;
+    private Counter rejectedFull;
+
+    public KeycloakCircuitBreaker(@Value("${journal.keycloak.breaker.failure-rate-threshold:50}") int failureRateThreshold,
+                                  @Value("${journal.keycloak.breaker.window-size:20}") int windowSize,
+                                  @Value("${journal.keycloak.breaker.minimum-calls:10}") int minimumCalls,
+                                  @Value("${journal.keycloak.breaker.open-ms:10000}") long openMs,
+                                  @Value("${journal.keycloak.breaker.half-open-calls:3}") int halfOpenCalls,
+                                  @Value("${journal.keycloak.bulkhead.max-concurrent:50}") int maxConcurrent,
+                                  @Value("${journal.keycloak.bulkhead.max-wait-ms:1000}") long maxWaitMs) {
+        this.failureRateThreshold = failureRateThreshold;
+        this.window = new boolean[windowSize];
+        this.minimumCalls = Math.min(minimumCalls, windowSize);
+        this.openMs = openMs;
+        this.halfOpenCalls = halfOpenCalls;
+        this.maxConcurrent = maxConcurrent;
+        this.maxWaitMs = maxWaitMs;
+        this.bulkhead = new Semaphore(maxConcurrent);
+    }
+
+    // Takes a slot for one call; every successful acquire must be paired with onComplete
+    public void acquire() {
+        try {
+            if (!bulkhead.tryAcquire(maxWaitMs, TimeUnit.MILLISECONDS)) {
+                increment(rejectedFull);
+                throw new KeycloakUnavailableException("Keycloak bulkhead is full (" + maxConcurrent + " calls in flight)");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new KeycloakUnavailableException("Interrupted while waiting for the Keycloak bulkhead");
+        }
+        synchronized (this) {
+            if (state == State.OPEN && System.currentTimeMillis() - openedAt >= openMs) {
+                transition(State.HALF_OPEN);
+            }
+            if (state == State.OPEN || (state == State.HALF_OPEN && trialsStarted >= halfOpenCalls)) {
+                bulkhead.release();
+                increment(rejectedOpen);
+                throw new KeycloakUnavailableException("Keycloak circuit breaker is " + state);
+            }
+            if (state == State.HALF_OPEN) {
+                trialsStarted++;
+            }
+        }
+    }
+
+    public void onComplete(boolean success) {
+        bulkhead.release();
+        synchronized (this) {
+            switch (state) {
+                case HALF_OPEN -> {
+                    if (!success) {
+                        transition(State.OPEN);
+                    } else if (++trialsSucceeded >= halfOpenCalls) {
+                        transition(State.CLOSED);
+                    }
+                }
+                case CLOSED -> {
+                    record(success);
+                    if (recorded >= minimumCalls && failures * 100 >= failureRateThreshold * recorded) {
+                        transition(State.OPEN);
+                    }
+                }
+                // calls started before the breaker opened tell nothing new
+                case OPEN -> { }
+            }
+        }
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        this.registry = registry;
+        for (State candidate : State.values()) {
+            Gauge.builder("journal.keycloak.breaker.state", this, breaker -> breaker.getState() == candidate ? 1 : 0)
+                    .tag("state", candidate.name())
+                    .register(registry);
+        }
+        Gauge.builder("journal.keycloak.bulkhead.in-flight", bulkhead, permits -> maxConcurrent - permits.availablePermits())
+                .register(registry);
+        rejectedOpen = Counter.builder("journal.keycloak.breaker.rejected").tag("reason", "open").register(registry);
+        rejectedFull = Counter.builder("journal.keycloak.breaker.rejected").tag("reason", "bulkhead").register(registry);
+    }
+
+    private void record(boolean success) {
+        if (recorded == window.length && window[next]) {
+            failures--;
+        }
+        window[next] = !success;
+        if (!success) {
+            failures++;
+        }
+        next = (next + 1) % window.length;
+        recorded = Math.min(recorded + 1, window.length);
+    }
+
+    private void transition(State to) {
+        State from = state;
+        state = to;
+        switch (to) {
+            case OPEN -> openedAt = System.currentTimeMillis();
+            case HALF_OPEN -> {
+                trialsStarted = 0;
+                trialsSucceeded = 0;
+            }
+            case CLOSED -> {
+                recorded = 0;
+                next = 0;
+                failures = 0;
+            }
+        }
+        if (registry != null) {
+            Counter.builder("journal.keycloak.breaker.transitions")
+                    .tag("from", from.name())
+                    .tag("to", to.name())
+                    .register(registry)
+                    .increment();
+        }
+        if (to == State.OPEN) {
+            log.warn("Keycloak circuit breaker {} -> OPEN, rejecting calls for {} ms", from, openMs);
+        } else {
+            log.info("Keycloak circuit breaker {} -> {}", from, to);
+        }
+    }
+
+    private static void increment(Counter counter) {
+        if (counter != null) {
+            counter.increment();
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package fullstack2.journalsystem_user.service;
+
+import jakarta.ws.rs.ProcessingException;
+
+/**
+ * A Keycloak call that was not attempted because the circuit breaker is open or the bulkhead is
+ * full. Raised inside the HTTP engine, so it may reach callers wrapped by the client.
+ */
+public class KeycloakUnavailableException extends ProcessingException {
+
+    public KeycloakUnavailableException(String message) {
+        super(message);
+    }
+
+    public static boolean isCause(Throwable failure) {
+        for (Throwable cause = failure; cause != null; cause = cause.getCause()) {
+            if (cause instanceof KeycloakUnavailableException) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
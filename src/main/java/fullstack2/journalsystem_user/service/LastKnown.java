@@ -0,0 +1,72 @@
+package fullstack2.journalsystem_user.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+import java.time.Duration;
+
+/**
+ * The last value successfully read from Keycloak per key, kept well beyond any cache TTL. It is
+ * only consulted when Keycloak is unavailable (circuit breaker open or bulkhead full): the
+ * remembered value is then served instead of the error and the request is marked stale.
+ */
+public class LastKnown<T> implements MeterBinder {
+
+    private final String name;
+    private final Cache<String, T> values;
+
+    private Counter served;
+
+    public LastKnown(String name, long maximumSize, Duration retention) {
+        this.name = name;
+        this.values = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(retention)
+                .build();
+    }
+
+    public void remember(String key, T value) {
+        if (key != null && value != null) {
+            values.put(key, value);
+        }
+    }
+
+    public void forget(String key) {
+        if (key != null) {
+            values.invalidate(key);
+        }
+    }
+
+    public void forgetAll() {
+        values.invalidateAll();
+    }
+
+    // The remembered value, marking the request stale, when the failure means Keycloak is unavailable; otherwise null
+    public T recall(String key, Throwable failure) {
+        T value = key != null && KeycloakUnavailableException.isCause(failure) ? values.getIfPresent(key) : null;
+        if (value != null) {
+            KeycloakCallTally.markStale();
+            if (served != null) {
+                served.increment();
+            }
+        }
+        return value;
+    }
+
+    // As recall, but rethrows the failure when there is nothing to serve
+    public T serveStale(String key, RuntimeException failure) {
+        T value = recall(key, failure);
+        if (value == null) {
+            throw failure;
+        }
+        return value;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        served = Counter.builder("journal.stale.served").tag("cache", name).register(registry);
+    }
+}
@@ -0,0 +1,231 @@
+package fullstack2.journalsystem_user.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Remembers, for a short time, usernames and user IDs that Keycloak reported as not existing,
+ * so repeated lookups of them are answered without a Keycloak call. The misses are held in a
+ * Bloom filter only, at a few bytes per entry, with a false positive rate low enough to answer
+ * from it alone. The filter cannot forget single entries, so it is kept in two generations,
+ * rotated once per TTL or when the current one is full, and a small exact set holds the names
+ * and IDs registered since they missed. Should that set overflow, the filter is cleared.
+ */
+@Component
+public class NegativeCache implements MeterBinder {
+
+    private static final double FALSE_POSITIVE_RATE = 1e-6;
+
+    private final Cache<String, Boolean> forgotten;
+    private final long ttlMs;
+    private final long expectedInsertions;
+
+    private volatile BloomFilter current;
+    private volatile BloomFilter previous;
+    private volatile long rotatedAt;
+
+    private Counter shortCircuited;
+    private Counter bloomSkipped;
+    private Counter recorded;
+    private Counter cleared;
+
+    public NegativeCache(@Value("${journal.negative-cache.ttl-seconds:30}") long ttlSeconds,
+                         @Value("${journal.negative-cache.maximum-size:10000}") long maximumSize) {
+        this.ttlMs = Duration.ofSeconds(ttlSeconds).toMillis();
+        this.expectedInsertions = Math.max(maximumSize, 1);
+        // Registrations of names that missed within the last two TTLs are rare
+        this.forgotten = Caffeine.newBuilder()
+                .maximumSize(Math.max(maximumSize / 10, 1))
+                .expireAfterWrite(Duration.ofSeconds(ttlSeconds * 2))
+                .executor(Runnable::run)
+                .removalListener((String key, Boolean value, RemovalCause cause) -> {
+                    if (cause == RemovalCause.SIZE) {
+                        clear();
+                    }
+                })
+                .recordStats()
+                .build();
+        this.current = new BloomFilter(expectedInsertions, FALSE_POSITIVE_RATE);
+        this.previous = new BloomFilter(expectedInsertions, FALSE_POSITIVE_RATE);
+        this.rotatedAt = System.currentTimeMillis();
+    }
+
+    public boolean isUnknownUsername(String username) {
+        return username != null && isMissing(usernameKey(username));
+    }
+
+    public boolean isUnknownId(String userId) {
+        return userId != null && isMissing("id:" + userId);
+    }
+
+    public void recordUnknownUsername(String username) {
+        if (username != null) {
+            record(usernameKey(username));
+        }
+    }
+
+    public void recordUnknownId(String userId) {
+        if (userId != null) {
+            record("id:" + userId);
+        }
+    }
+
+    // Called on registration: the name and ID exist from now on
+    public void forget(String userId, String username) {
+        if (userId != null) {
+            forget("id:" + userId);
+        }
+        if (username != null) {
+            forget(usernameKey(username));
+        }
+    }
+
+    // Entries held by the filter, across both generations
+    public long size() {
+        return current.count() + previous.count();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        CaffeineCacheMetrics.monitor(registry, forgotten, "negativeLookupsForgotten");
+        shortCircuited = Counter.builder("journal.negative-cache.short-circuited").register(registry);
+        bloomSkipped = Counter.builder("journal.negative-cache.bloom-skipped").register(registry);
+        recorded = Counter.builder("journal.negative-cache.recorded").register(registry);
+        cleared = Counter.builder("journal.negative-cache.cleared").register(registry);
+    }
+
+    private boolean isMissing(String key) {
+        rotateIfDue();
+        if (!mightContain(key)) {
+            increment(bloomSkipped);
+            return false;
+        }
+        if (forgotten.getIfPresent(key) != null) {
+            return false;
+        }
+        increment(shortCircuited);
+        return true;
+    }
+
+    private void record(String key) {
+        rotateIfDue();
+        current.put(key);
+        forgotten.invalidate(key);
+        increment(recorded);
+    }
+
+    // Only names the filter may hold need an entry; most registrations never missed
+    private void forget(String key) {
+        if (mightContain(key)) {
+            forgotten.put(key, Boolean.TRUE);
+        }
+    }
+
+    private boolean mightContain(String key) {
+        return current.mightContain(key) || previous.mightContain(key);
+    }
+
+    // An entry stays in the filter for at least one full TTL, unless a full generation pushes it out earlier
+    private void rotateIfDue() {
+        if (System.currentTimeMillis() - rotatedAt < ttlMs && current.count() < expectedInsertions) {
+            return;
+        }
+        synchronized (this) {
+            if (System.currentTimeMillis() - rotatedAt >= ttlMs || current.count() >= expectedInsertions) {
+                previous = current;
+                current = new BloomFilter(expectedInsertions, FALSE_POSITIVE_RATE);
+                rotatedAt = System.currentTimeMillis();
+            }
+        }
+    }
+
+    // The exact set lost an entry it needed, so the filter can no longer be trusted
+    private synchronized void clear() {
+        previous = new BloomFilter(expectedInsertions, FALSE_POSITIVE_RATE);
+        current = new BloomFilter(expectedInsertions, FALSE_POSITIVE_RATE);
+        rotatedAt = System.currentTimeMillis();
+        increment(cleared);
+    }
+
+    private static void increment(Counter counter) {
+        if (counter != null) {
+            counter.increment();
+        }
+    }
+
+    // Keycloak usernames are case-insensitive
+    private static String usernameKey(String username) {
+        return "username:" + username.toLowerCase(Locale.ROOT);
+    }
+
+    static final class BloomFilter {
+
+        private final AtomicLongArray bits;
+        private final long bitCount;
+        private final int hashCount;
+        private final AtomicLong count = new AtomicLong();
+
+        BloomFilter(long expectedInsertions, double falsePositiveRate) {
+            long size = (long) Math.ceil(-expectedInsertions * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)));
+            this.bitCount = Math.max(64, size);
+            this.bits = new AtomicLongArray((int) ((bitCount + 63) / 64));
+            this.hashCount = Math.max(1, (int) Math.round((double) bitCount / expectedInsertions * Math.log(2)));
+        }
+
+        void put(String key) {
+            long hash = hash(key);
+            int h1 = (int) hash;
+            int h2 = (int) (hash >>> 32);
+            for (int i = 1; i <= hashCount; i++) {
+                long bit = Math.floorMod(h1 + (long) i * h2, bitCount);
+                int word = (int) (bit >>> 6);
+                long mask = 1L << bit;
+                long value;
+                do {
+                    value = bits.get(word);
+                } while ((value & mask) == 0 && !bits.compareAndSet(word, value, value | mask));
+            }
+            count.incrementAndGet();
+        }
+
+        long count() {
+            return count.get();
+        }
+
+        boolean mightContain(String key) {
+            long hash = hash(key);
+            int h1 = (int) hash;
+            int h2 = (int) (hash >>> 32);
+            for (int i = 1; i <= hashCount; i++) {
+                long bit = Math.floorMod(h1 + (long) i * h2, bitCount);
+                if ((bits.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        // 64-bit FNV-1a; the two halves feed the double hashing above
+        private static long hash(String key) {
+            long hash = 0xcbf29ce484222325L;
+            for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+                hash ^= b;
+                hash *= 0x100000001b3L;
+            }
+            return hash;
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package fullstack2.journalsystem_user.service;
+
+import java.util.List;
+
+/**
+ * Window over a list result: skip {@code offset} items, then return at most {@code limit}.
+ */
+public record Page(int offset, int limit) {
+
+    public static final Page ALL = new Page(0, Integer.MAX_VALUE);
+
+    public Page {
+        if (offset < 0 || limit < 0) {
+            throw new IllegalArgumentException("offset and limit must not be negative");
+        }
+    }
+
+    // A missing limit means everything after the offset
+    public static Page of(int offset, Integer limit) {
+        return new Page(offset, limit != null ? limit : Integer.MAX_VALUE);
+    }
+
+    public <T> List<T> slice(List<T> items) {
+        if (offset >= items.size()) {
+            return List.of();
+        }
+        return items.subList(offset, (int) Math.min(items.size(), (long) offset + limit));
+    }
+}
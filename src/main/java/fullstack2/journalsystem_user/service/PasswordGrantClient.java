@@ -0,0 +1,54 @@
+package fullstack2.journalsystem_user.service;
+
+import jakarta.ws.rs.client.Client;
+import jakarta.ws.rs.client.Entity;
+import jakarta.ws.rs.core.Form;
+import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.Response;
+import org.keycloak.OAuth2Constants;
+import org.keycloak.representations.AccessTokenResponse;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+/**
+ * Performs the OAuth2 password grant against the realm's token endpoint using the
+ * long-lived, pooled HTTP client shared with the admin client.
+ */
+@Service
+public class PasswordGrantClient {
+
+    private final Client httpClient;
+
+    @Value("${KEYCLOAK_REALM}")
+    private String realm;
+    @Value("${KEYCLOAK_AUTH_SERVER_URL}")
+    private String serverUrl;
+    @Value("${KEYCLOAK_CLIENT_ID}")
+    private String clientId;
+    @Value("${KEYCLOAK_CLIENT_SECRET}")
+    private String clientSecret;
+
+    public PasswordGrantClient(Client keycloakHttpClient) {
+        this.httpClient = keycloakHttpClient;
+    }
+
+    public AccessTokenResponse grantToken(String username, String password) {
+        Form form = new Form()
+                .param(OAuth2Constants.GRANT_TYPE, OAuth2Constants.PASSWORD)
+                .param("username", username)
+                .param("password", password)
+                .param(OAuth2Constants.CLIENT_ID, clientId)
+                .param(OAuth2Constants.CLIENT_SECRET, clientSecret);
+
+        try (Response response = httpClient.target(serverUrl)
+                .path("realms").path(realm).path("protocol/openid-connect/token")
+                .request(MediaType.APPLICATION_JSON_TYPE)
+                .post(Entity.form(form))) {
+
+            if (response.getStatus() != 200) {
+                throw new RuntimeException("Password grant failed with status: " + response.getStatus());
+            }
+            return response.readEntity(AccessTokenResponse.class);
+        }
+    }
+}
@@ -1,8 +1,12 @@
 package fullstack2.journalsystem_user.service;
 
+import fullstack2.journalsystem_user.Models.CreateDoctorModel;
 import fullstack2.journalsystem_user.Models.CreatePatientModel;
 import fullstack2.journalsystem_user.Models.CreateUserModel;
 import fullstack2.journalsystem_user.Models.LocalUser;
+import fullstack2.journalsystem_user.Models.PatientAssignmentModel;
+import fullstack2.journalsystem_user.Models.PatientAssignmentResult;
+import jakarta.ws.rs.NotFoundException;
 import jakarta.ws.rs.core.Response;
 import org.keycloak.OAuth2Constants;
 import org.keycloak.admin.client.CreatedResponseUtil;
@@ -12,15 +16,30 @@ import org.keycloak.admin.client.resource.UserResource;
 import org.keycloak.representations.idm.CredentialRepresentation;
 import org.keycloak.representations.idm.RoleRepresentation;
 import org.keycloak.representations.idm.UserRepresentation;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import java.util.*;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 @Service
 public class PatientService {
+
+    private static final Logger log = LoggerFactory.getLogger(PatientService.class);
+    private static final int ASSIGNMENT_LOCK_STRIPES = 64;
+
     private final Keycloak keycloak;
+    private final RoleRegistry roleRegistry;
+    private final ProfileCache<CreatePatientModel> patientCache;
+    private final ProfileCache<CreateDoctorModel> doctorCache;
+    private final FanOutExecutor fanOut;
+    private final UserDirectory directory;
+    private final NegativeCache negativeCache;
+    private final StripedLocks assignmentLocks = new StripedLocks(ASSIGNMENT_LOCK_STRIPES);
 
     @Value("${KEYCLOAK_REALM}")
     private String realm;
@@ -31,12 +50,45 @@ public class PatientService {
     @Value("${KEYCLOAK_CLIENT_SECRET}")
     private String clientSecret;
 
-    public PatientService(Keycloak keycloak) {
+    public PatientService(Keycloak keycloak,
+                          RoleRegistry roleRegistry,
+                          ProfileCache<CreatePatientModel> patientCache,
+                          ProfileCache<CreateDoctorModel> doctorCache,
+                          FanOutExecutor fanOut,
+                          UserDirectory directory,
+                          NegativeCache negativeCache) {
         this.keycloak = keycloak;
+        this.roleRegistry = roleRegistry;
+        this.patientCache = patientCache;
+        this.doctorCache = doctorCache;
+        this.fanOut = fanOut;
+        this.directory = directory;
+        this.negativeCache = negativeCache;
     }
 
     public CreatePatientModel getPatientById(String userId) {
-        UserRepresentation userRep = keycloak.realm(realm).users().get(userId).toRepresentation();
+        return patientCache.getById(userId, this::loadPatientById);
+    }
+
+    private CreatePatientModel loadPatientById(String userId) {
+        Optional<UserDirectory.Entry> replica = directory.findById(userId);
+        if (replica.isPresent()) {
+            return toPatientModel(replica.get().user());
+        }
+        if (negativeCache.isUnknownId(userId)) {
+            throw new NotFoundException("Patient not found with ID: " + userId);
+        }
+
+        try {
+            UserRepresentation userRep = keycloak.realm(realm).users().get(userId).toRepresentation();
+            return toPatientModel(userRep);
+        } catch (NotFoundException e) {
+            negativeCache.recordUnknownId(userId);
+            throw e;
+        }
+    }
+
+    CreatePatientModel toPatientModel(UserRepresentation userRep) {
         Map<String, List<String>> attrs = userRep.getAttributes();
 
         // Safely parse age, defaulting to 0 if missing or invalid
@@ -58,12 +110,25 @@ public class PatientService {
     }
 
     public CreatePatientModel getPatientByUsername(String username) {
+        return patientCache.getByUsername(username, this::loadPatientByUsername);
+    }
+
+    private CreatePatientModel loadPatientByUsername(String username) {
+        Optional<UserDirectory.Entry> replica = directory.findByUsername(username);
+        if (replica.isPresent()) {
+            return toPatientModel(replica.get().user());
+        }
+        if (negativeCache.isUnknownUsername(username)) {
+            throw new RuntimeException("Patient not found with username: " + username);
+        }
+
         // 1. Search for the user by username
         List<UserRepresentation> users = keycloak.realm(realm)
                 .users()
                 .searchByUsername(username, true);
 
         if (users.isEmpty()) {
+            negativeCache.recordUnknownUsername(username);
             throw new RuntimeException("Patient not found with username: " + username);
         }
 
@@ -73,28 +138,36 @@ public class PatientService {
                 .get(users.get(0).getId())
                 .toRepresentation();
 
-        Map<String, List<String>> attrs = userRep.getAttributes();
+        // 3. Return the populated model (password null for security)
+        return toPatientModel(userRep);
+    }
 
-        // 3. Convert age from String to int safely
-        String ageStr = getAttributeValue(attrs, "age");
-        int age = (ageStr != null) ? Integer.parseInt(ageStr) : 0;
+    public CreatePatientModel registerPatient(CreatePatientModel request) {
+        // Fetch and return the registered patient (using ID for accuracy)
+        return getPatientById(createPatient(request));
+    }
 
-        // 4. Return the populated model (password null for security)
-        return new CreatePatientModel(
-                userRep.getUsername(),
-                userRep.getEmail(),
-                null,
-                userRep.getFirstName(),
-                userRep.getLastName(),
-                "patient",
-                getAttributeValue(attrs, "telephoneNr"),
-                getAttributeValue(attrs, "address"),
-                age,
-                getAttributeValue(attrs, "gender")
-        );
+    // Creates the patient with its role and returns the Keycloak ID; shared with bulk import
+    String createPatient(CreatePatientModel request) {
+        UserRepresentation user = newUser(request);
+
+        // 4. Create in Keycloak
+        Response response = keycloak.realm(realm).users().create(user);
+
+        if (response.getStatus() == 201) {
+            String userId = CreatedResponseUtil.getCreatedId(response);
+
+            // 5. Assign Role
+            roleRegistry.assignRealmRole(userId, request.getRole());
+            registered(userId, user, request.getRole());
+            return userId;
+        } else {
+            throw new RuntimeException("Patient registration failed. Status: " + response.getStatus());
+        }
     }
 
-    public CreatePatientModel registerPatient(CreatePatientModel request) {
+    // Builds the Keycloak user for a registration; shared with bulk import
+    UserRepresentation newUser(CreatePatientModel request) {
         // 1. Prepare User Representation
         UserRepresentation user = new UserRepresentation();
         user.setUsername(request.getUsername());
@@ -117,21 +190,14 @@ public class PatientService {
         passwordCred.setType(CredentialRepresentation.PASSWORD);
         passwordCred.setValue(request.getPassword());
         user.setCredentials(Collections.singletonList(passwordCred));
+        return user;
+    }
 
-        // 4. Create in Keycloak
-        Response response = keycloak.realm(realm).users().create(user);
-
-        if (response.getStatus() == 201) {
-            String userId = CreatedResponseUtil.getCreatedId(response);
-
-            // 5. Assign Role
-            assignRealmRole(userId, request.getRole());
-
-            // 6. Fetch and return the registered patient (using ID for accuracy)
-            return getPatientById(userId);
-        } else {
-            throw new RuntimeException("Patient registration failed. Status: " + response.getStatus());
-        }
+    // Bookkeeping once a user exists in Keycloak with its role assigned
+    void registered(String userId, UserRepresentation user, String roleName) {
+        directory.put(userId, user, roleName);
+        patientCache.invalidate(userId, user.getUsername());
+        negativeCache.forget(userId, user.getUsername());
     }
 
     private String getAttributeValue(Map<String, List<String>> attributes, String key) {
@@ -141,52 +207,170 @@ public class PatientService {
         return null;
     }
 
-    private void assignRealmRole(String userId, String roleName) {
-        // Fetch the role representation from the realm
-        RoleRepresentation role = keycloak.realm(realm).roles().get(roleName).toRepresentation();
+    public void addPatient(String patientUsername, String doctorUsername) {
+        List<String> added = assignToDoctor(doctorUsername, List.of(patientUsername));
 
-        // Add the role to the user at the realm level
-        keycloak.realm(realm).users().get(userId).roles().realmLevel().add(Collections.singletonList(role));
+        if (!added.isEmpty()) {
+            log.debug("Patient {} added to doctor {}", patientUsername, doctorUsername);
+        } else {
+            log.debug("Patient {} already assigned to doctor {}", patientUsername, doctorUsername);
+        }
     }
 
-    public void addPatient(String patientUsername, String doctorUsername) {
-        // 1. Find the doctor by username to get their ID
-        List<UserRepresentation> doctors = keycloak.realm(realm)
-                .users()
-                .searchByUsername(doctorUsername, true);
-
-        if (doctors.isEmpty()) {
-            throw new RuntimeException("Doctor not found: " + doctorUsername);
+    // Groups the pairs per doctor so every doctor costs one lookup, one read and at most one update
+    public List<PatientAssignmentResult> addPatients(List<PatientAssignmentModel> assignments) {
+        PatientAssignmentResult[] results = new PatientAssignmentResult[assignments.size()];
+        Map<String, List<Integer>> byDoctor = new LinkedHashMap<>();
+
+        for (int i = 0; i < assignments.size(); i++) {
+            PatientAssignmentModel assignment = assignments.get(i);
+            if (assignment == null || isBlank(assignment.getPatientName()) || isBlank(assignment.getDoctorName())) {
+                results[i] = new PatientAssignmentResult(
+                        assignment != null ? assignment.getPatientName() : null,
+                        assignment != null ? assignment.getDoctorName() : null,
+                        PatientAssignmentResult.Status.FAILED,
+                        "patientName and doctorName are required");
+                continue;
+            }
+            byDoctor.computeIfAbsent(assignment.getDoctorName().toLowerCase(Locale.ROOT), d -> new ArrayList<>()).add(i);
         }
 
-        String doctorId = doctors.get(0).getId();
-        UserResource doctorResource = keycloak.realm(realm).users().get(doctorId);
-        UserRepresentation doctorRep = doctorResource.toRepresentation();
+        // Doctors are independent of each other, so their updates run side by side. Each call returns
+        // its own results: a call that outlives its timeout shares nothing with this thread
+        List<List<PatientAssignmentResult>> finished = fanOut.mapAll(new ArrayList<>(byDoctor.values()), indices ->
+                assignToDoctor(indices.stream().map(assignments::get).collect(Collectors.toList())));
 
-        // 2. Get current attributes or create new map if null
-        Map<String, List<String>> attributes = doctorRep.getAttributes();
-        if (attributes == null) {
-            attributes = new HashMap<>();
+        for (List<PatientAssignmentResult> doctorResults : finished) {
+            List<Integer> indices = byDoctor.get(doctorResults.get(0).getDoctorName().toLowerCase(Locale.ROOT));
+            for (int k = 0; k < indices.size(); k++) {
+                results[indices.get(k)] = doctorResults.get(k);
+            }
+        }
+        // An unfinished call may still have written the doctor's panel, so its outcome is unknown
+        for (int i = 0; i < results.length; i++) {
+            if (results[i] == null) {
+                results[i] = new PatientAssignmentResult(assignments.get(i).getPatientName(),
+                        assignments.get(i).getDoctorName(), PatientAssignmentResult.Status.UNKNOWN,
+                        "Assignment did not finish in time and may still have been applied");
+            }
         }
+        return Arrays.asList(results);
+    }
 
-        // 3. Update the 'patients' attribute list
-        List<String> patientList = attributes.getOrDefault("patients", new ArrayList<>());
+    // One result per pair, in order; all pairs name the same doctor
+    private List<PatientAssignmentResult> assignToDoctor(List<PatientAssignmentModel> pairs) {
+        String doctorUsername = pairs.get(0).getDoctorName();
+        List<String> patientUsernames = pairs.stream()
+                .map(PatientAssignmentModel::getPatientName)
+                .collect(Collectors.toList());
+        List<PatientAssignmentResult> results = new ArrayList<>(pairs.size());
+        try {
+            Set<String> added = new HashSet<>(assignToDoctor(doctorUsername, patientUsernames));
+            for (PatientAssignmentModel pair : pairs) {
+                // a pair repeated within the batch is only assigned by its first occurrence
+                PatientAssignmentResult.Status status = added.remove(pair.getPatientName())
+                        ? PatientAssignmentResult.Status.ASSIGNED
+                        : PatientAssignmentResult.Status.ALREADY_ASSIGNED;
+                results.add(new PatientAssignmentResult(pair.getPatientName(), pair.getDoctorName(), status, null));
+            }
+        } catch (RuntimeException e) {
+            results.clear();
+            for (PatientAssignmentModel pair : pairs) {
+                results.add(new PatientAssignmentResult(pair.getPatientName(), pair.getDoctorName(),
+                        PatientAssignmentResult.Status.FAILED, e.getMessage()));
+            }
+        }
+        return results;
+    }
 
-        // Check if patient is already assigned to avoid duplicates
-        if (!patientList.contains(patientUsername)) {
-            patientList.add(patientUsername);
-            attributes.put("patients", patientList);
-            doctorRep.setAttributes(attributes);
+    // Adds the patients to the doctor's panel in a single attribute update; returns the ones not already listed
+    private List<String> assignToDoctor(String doctorUsername, List<String> patientUsernames) {
+        // 1. Find the doctor by username to get their ID
+        String doctorId = directory.findByUsername(doctorUsername)
+                .map(entry -> entry.user().getId())
+                .orElse(null);
+        if (doctorId == null) {
+            List<UserRepresentation> doctors = keycloak.realm(realm)
+                    .users()
+                    .searchByUsername(doctorUsername, true);
+
+            if (doctors.isEmpty()) {
+                throw new RuntimeException("Doctor not found: " + doctorUsername);
+            }
+            doctorId = doctors.get(0).getId();
+        }
 
-            // 4. Push the update to Keycloak
-            doctorResource.update(doctorRep);
-            System.out.println("DEBUG: Patient " + patientUsername + " added to Doctor " + doctorUsername);
-        } else {
-            System.out.println("DEBUG: Patient already assigned to this doctor.");
+        // The patients attribute is read, modified and written back as a whole; concurrent
+        // assignments to the same doctor must not overwrite each other
+        ReentrantLock lock = assignmentLocks.get(doctorId);
+        lock.lock();
+        try {
+            UserResource doctorResource = keycloak.realm(realm).users().get(doctorId);
+            UserRepresentation doctorRep = doctorResource.toRepresentation();
+
+            // 2. Get current attributes or create new map if null
+            Map<String, List<String>> attributes = doctorRep.getAttributes() != null
+                    ? new HashMap<>(doctorRep.getAttributes())
+                    : new HashMap<>();
+
+            // 3. Update the 'patients' attribute list, skipping patients already assigned
+            List<String> patientList = new ArrayList<>(attributes.getOrDefault("patients", List.of()));
+            List<String> added = new ArrayList<>();
+            for (String patientUsername : patientUsernames) {
+                if (!patientList.contains(patientUsername)) {
+                    patientList.add(patientUsername);
+                    added.add(patientUsername);
+                }
+            }
+
+            if (!added.isEmpty()) {
+                attributes.put("patients", patientList);
+                doctorRep.setAttributes(attributes);
+
+                // 4. Push the update to Keycloak
+                doctorResource.update(doctorRep);
+                directory.updateAttributes(doctorId, attributes);
+                doctorCache.invalidate(doctorId, doctorUsername);
+                for (String patientUsername : added) {
+                    patientCache.invalidate(null, patientUsername);
+                }
+            }
+            return added;
+        } finally {
+            lock.unlock();
         }
     }
 
+    private static boolean isBlank(String value) {
+        return value == null || value.isBlank();
+    }
+
     public List<CreatePatientModel> getPatientsByDoctor(String doctorUsername) {
+        return getPatientsByDoctor(doctorUsername, Page.ALL);
+    }
+
+    public List<CreatePatientModel> getPatientsByDoctor(String doctorUsername, Page page) {
+        List<CreatePatientModel> patients = new ArrayList<>();
+        streamPatientsByDoctor(doctorUsername, page, patients::add);
+        return patients;
+    }
+
+    // The page is cut from the doctor's panel before any patient is resolved; each patient is
+    // handed to the sink as soon as it and the ones before it are resolved
+    public void streamPatientsByDoctor(String doctorUsername, Page page, Consumer<CreatePatientModel> sink) {
+        Optional<List<UserDirectory.Entry>> panel = directory.findPatientsOf(doctorUsername);
+        if (panel.isPresent()) {
+            page.slice(panel.get()).forEach(entry -> sink.accept(getPatientById(entry.user().getId())));
+            return;
+        }
+
+        // Some listed patients are not in the directory: resolve the rest one by one
+        Optional<UserDirectory.Entry> doctorReplica = directory.findByUsername(doctorUsername);
+        if (doctorReplica.isPresent()) {
+            resolvePatients(page.slice(doctorReplica.get().attributeValues("patients")), sink);
+            return;
+        }
+
         // 1. Find the doctor to get their attributes
         List<UserRepresentation> doctors = keycloak.realm(realm)
                 .users()
@@ -207,30 +391,39 @@ public class PatientService {
         // 2. Extract the list of patient usernames
         List<String> patientUsernames = (attributes != null) ? attributes.get("patients") : null;
 
-        if (patientUsernames == null || patientUsernames.isEmpty()) {
-            return new ArrayList<>(); // Return empty list if no patients assigned
-        }
-
-        // 3. Fetch each patient's full model
-        return patientUsernames.stream()
-                .map(username -> {
-                    try {
-                        // Reuse your existing logic to find and map the patient
-                        List<UserRepresentation> foundPatients = keycloak.realm(realm)
-                                .users()
-                                .searchByUsername(username, true);
-
-                        if (foundPatients.isEmpty()) return null;
-
-                        // Call your existing getPatientById using the ID found
-                        return getPatientById(foundPatients.get(0).getId());
-                    } catch (Exception e) {
-                        System.err.println("Error fetching patient " + username + ": " + e.getMessage());
-                        return null;
-                    }
-                })
-                .filter(Objects::nonNull) // Remove any patients that weren't found
-                .collect(Collectors.toList());
+        if (patientUsernames != null) {
+            resolvePatients(page.slice(patientUsernames), sink);
+        }
+    }
+
+    private void resolvePatients(List<String> patientUsernames, Consumer<CreatePatientModel> sink) {
+        if (patientUsernames.isEmpty()) {
+            return; // no patients assigned
+        }
+
+        // 3. Fetch each patient's full model concurrently; missing patients are skipped
+        fanOut.forEachOrdered(patientUsernames, username -> {
+            Optional<UserDirectory.Entry> replica = directory.findByUsername(username);
+            if (replica.isPresent()) {
+                return getPatientById(replica.get().user().getId());
+            }
+            // stale names left in the panel are not looked up again while remembered as missing
+            if (negativeCache.isUnknownUsername(username)) {
+                return null;
+            }
+
+            List<UserRepresentation> foundPatients = keycloak.realm(realm)
+                    .users()
+                    .searchByUsername(username, true);
+
+            if (foundPatients.isEmpty()) {
+                negativeCache.recordUnknownUsername(username);
+                return null;
+            }
+
+            // Call your existing getPatientById using the ID found
+            return getPatientById(foundPatients.get(0).getId());
+        }, sink);
     }
 
 }
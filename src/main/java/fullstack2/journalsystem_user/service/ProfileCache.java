@@ -0,0 +1,144 @@
+package fullstack2.journalsystem_user.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+
+import java.time.Duration;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Bounded, TTL-based read-through cache for mapped profile models.
+ * Entries are reachable both by Keycloak user ID and by username; a model loaded
+ * by ID is also stored under its username so the next username lookup is a hit.
+ * Concurrent misses for the same key share a single load through {@link SingleFlight}.
+ * Loaded models are also kept in a {@link LastKnown} store, which answers when a load fails
+ * because Keycloak is unavailable.
+ */
+public class ProfileCache<T> implements MeterBinder {
+
+    private final String name;
+    private final Function<T, String> usernameOf;
+    private final Cache<String, T> byId;
+    private final Cache<String, T> byUsername;
+    private final SingleFlight<T> loads;
+    private final LastKnown<T> lastKnown;
+    // bumped on every invalidation so a load that raced with one is not cached
+    private final AtomicLong invalidations = new AtomicLong();
+
+    public ProfileCache(String name, long maximumSize, Duration ttl, Function<T, String> usernameOf) {
+        this(name, maximumSize, ttl, Duration.ZERO, usernameOf);
+    }
+
+    public ProfileCache(String name, long maximumSize, Duration ttl, Duration staleRetention, Function<T, String> usernameOf) {
+        this.name = name;
+        this.usernameOf = usernameOf;
+        this.byId = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(ttl)
+                .recordStats()
+                .build();
+        this.byUsername = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(ttl)
+                .recordStats()
+                .build();
+        this.loads = new SingleFlight<>(name);
+        this.lastKnown = new LastKnown<>(name, maximumSize, staleRetention);
+    }
+
+    public T getById(String userId, Function<String, T> loader) {
+        T cached = byId.getIfPresent(userId);
+        if (cached != null) {
+            return cached;
+        }
+        try {
+            return loads.run("id:" + userId, () -> {
+                long generation = invalidations.get();
+                T model = loader.apply(userId);
+                if (model != null && invalidations.get() == generation) {
+                    byId.put(userId, model);
+                    lastKnown.remember("id:" + userId, model);
+                    String username = usernameOf.apply(model);
+                    if (username != null) {
+                        byUsername.put(key(username), model);
+                        lastKnown.remember("username:" + key(username), model);
+                    }
+                }
+                return model;
+            });
+        } catch (RuntimeException e) {
+            return lastKnown.serveStale("id:" + userId, e);
+        }
+    }
+
+    public T getByUsername(String username, Function<String, T> loader) {
+        T cached = byUsername.getIfPresent(key(username));
+        if (cached != null) {
+            return cached;
+        }
+        try {
+            return loads.run("username:" + key(username), () -> {
+                long generation = invalidations.get();
+                T model = loader.apply(username);
+                if (model != null && invalidations.get() == generation) {
+                    byUsername.put(key(username), model);
+                    lastKnown.remember("username:" + key(username), model);
+                }
+                return model;
+            });
+        } catch (RuntimeException e) {
+            return lastKnown.serveStale("username:" + key(username), e);
+        }
+    }
+
+    public void invalidate(String userId, String username) {
+        invalidations.incrementAndGet();
+        if (userId != null) {
+            byId.invalidate(userId);
+            lastKnown.forget("id:" + userId);
+        }
+        if (username != null) {
+            byUsername.invalidate(key(username));
+            lastKnown.forget("username:" + key(username));
+        }
+    }
+
+    public void invalidateAll() {
+        invalidations.incrementAndGet();
+        byId.invalidateAll();
+        byUsername.invalidateAll();
+        lastKnown.forgetAll();
+    }
+
+    // Combined hit/miss/eviction counters of both key spaces
+    public CacheStats stats() {
+        return byId.stats().plus(byUsername.stats());
+    }
+
+    public SingleFlight<T> loads() {
+        return loads;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        CaffeineCacheMetrics.monitor(registry, byId, name + ".byId");
+        CaffeineCacheMetrics.monitor(registry, byUsername, name + ".byUsername");
+        loads.bindTo(registry);
+        lastKnown.bindTo(registry);
+    }
+
+    // Keycloak usernames are case-insensitive, so are our keys
+    private static String key(String username) {
+        return username.toLowerCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,96 @@
+package fullstack2.journalsystem_user.service;
+
+import org.keycloak.admin.client.Keycloak;
+import org.keycloak.representations.idm.RoleRepresentation;
+import org.keycloak.representations.idm.UserRepresentation;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Shared cache of realm role representations. Realm roles (doctor, patient, employee)
+ * practically never change, so they are resolved once and refreshed in the background
+ * instead of being fetched on every registration.
+ */
+@Service
+public class RoleRegistry {
+
+    private static final Logger log = LoggerFactory.getLogger(RoleRegistry.class);
+
+    private static final int PAGE_SIZE = 100;
+
+    private final Keycloak keycloak;
+    private final Map<String, RoleRepresentation> roles = new ConcurrentHashMap<>();
+
+    @Value("${KEYCLOAK_REALM}")
+    private String realm;
+
+    public RoleRegistry(Keycloak keycloak) {
+        this.keycloak = keycloak;
+    }
+
+    // Fetched outside the map so a slow Keycloak call never blocks other lookups or the refresh;
+    // concurrent first lookups of a role may both fetch it, and the first result is kept
+    public RoleRepresentation getRole(String roleName) {
+        RoleRepresentation role = roles.get(roleName);
+        if (role != null) {
+            return role;
+        }
+        RoleRepresentation fetched = fetchRole(roleName);
+        RoleRepresentation raced = roles.putIfAbsent(roleName, fetched);
+        return raced != null ? raced : fetched;
+    }
+
+    public void assignRealmRole(String userId, String roleName) {
+        RoleRepresentation role = getRole(roleName);
+
+        // Add the role to the user at the realm level
+        keycloak.realm(realm).users().get(userId).roles().realmLevel().add(Collections.singletonList(role));
+    }
+
+    // IDs of every user holding the realm role, fetched page by page in brief form
+    public Set<String> memberIds(String roleName) {
+        Set<String> ids = new HashSet<>();
+        int first = 0;
+        List<UserRepresentation> page;
+        do {
+            page = keycloak.realm(realm).roles().get(roleName).getUserMembers(true, first, PAGE_SIZE);
+            page.forEach(user -> ids.add(user.getId()));
+            first += PAGE_SIZE;
+        } while (page.size() == PAGE_SIZE);
+        return ids;
+    }
+
+    // Re-resolves every known role; a failed refresh keeps the last good representation
+    @Scheduled(fixedDelayString = "${journal.role-registry.refresh-ms:600000}",
+            initialDelayString = "${journal.role-registry.refresh-ms:600000}")
+    public void refresh() {
+        for (String roleName : List.copyOf(roles.keySet())) {
+            try {
+                roles.put(roleName, fetchRole(roleName));
+            } catch (Exception e) {
+                log.warn("Could not refresh realm role {}: {}", roleName, e.getMessage());
+            }
+        }
+    }
+
+    // Manual reload hook, e.g. after roles were recreated in Keycloak
+    public void reload() {
+        List<String> known = List.copyOf(roles.keySet());
+        roles.clear();
+        known.forEach(this::getRole);
+    }
+
+    private RoleRepresentation fetchRole(String roleName) {
+        return keycloak.realm(realm).roles().get(roleName).toRepresentation();
+    }
+}
@@ -0,0 +1,87 @@
+package fullstack2.journalsystem_user.service;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Collapses concurrent calls for the same key into one: the first caller runs the fetch, callers
+ * arriving while it is in flight wait for and share its result or failure. Nothing is kept once
+ * the fetch completes, so this is not a cache.
+ */
+public class SingleFlight<V> implements MeterBinder {
+
+    private final String name;
+    private final Map<String, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+    private final AtomicLong leaders = new AtomicLong();
+    private final AtomicLong collapsed = new AtomicLong();
+
+    public SingleFlight(String name) {
+        this.name = name;
+    }
+
+    public V run(String key, Supplier<V> fetch) {
+        CompletableFuture<V> mine = new CompletableFuture<>();
+        CompletableFuture<V> existing = inFlight.putIfAbsent(key, mine);
+        if (existing != null) {
+            collapsed.incrementAndGet();
+            return await(existing);
+        }
+
+        leaders.incrementAndGet();
+        try {
+            V value = fetch.get();
+            inFlight.remove(key, mine);
+            mine.complete(value);
+            return value;
+        } catch (RuntimeException | Error e) {
+            inFlight.remove(key, mine);
+            mine.completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    // Calls that went upstream
+    public long getLeaderCount() {
+        return leaders.get();
+    }
+
+    // Calls that shared another caller's in-flight fetch instead of going upstream
+    public long getCollapsedCount() {
+        return collapsed.get();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("journal.singleflight.calls", leaders, AtomicLong::get)
+                .tag("flight", name)
+                .tag("result", "leader")
+                .register(registry);
+        FunctionCounter.builder("journal.singleflight.calls", collapsed, AtomicLong::get)
+                .tag("flight", name)
+                .tag("result", "collapsed")
+                .register(registry);
+    }
+
+    private static <V> V await(CompletableFuture<V> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            if (cause instanceof Error error) {
+                throw error;
+            }
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package fullstack2.journalsystem_user.service;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Fixed set of locks picked by key hash, so updates to the same key are serialised while
+ * unrelated keys rarely contend. Memory stays constant no matter how many keys are seen.
+ */
+class StripedLocks {
+
+    private final ReentrantLock[] stripes;
+
+    StripedLocks(int stripes) {
+        if (stripes <= 0) {
+            throw new IllegalArgumentException("stripes must be positive");
+        }
+        this.stripes = new ReentrantLock[stripes];
+        for (int i = 0; i < stripes; i++) {
+            this.stripes[i] = new ReentrantLock();
+        }
+    }
+
+    ReentrantLock get(String key) {
+        int hash = key.hashCode();
+        hash ^= (hash >>> 16); // spread the high bits like HashMap does
+        return stripes[Math.floorMod(hash, stripes.length)];
+    }
+}
@@ -0,0 +1,294 @@
+package fullstack2.journalsystem_user.service;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.keycloak.admin.client.Keycloak;
+import org.keycloak.representations.idm.UserRepresentation;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * In-process replica of the realm's users, their tracked realm roles and attributes.
+ * Loaded page by page at startup and re-synchronised periodically; local registrations and
+ * attribute updates are written through immediately. Reads are only answered while the last
+ * successful sync is within the staleness bound, otherwise callers fall back to Keycloak.
+ * Organization, role and doctor-panel queries are answered from {@link DirectoryIndexes},
+ * maintained on every write and rebuilt after each sync.
+ */
+@Service
+public class UserDirectory implements MeterBinder {
+
+    private static final Logger log = LoggerFactory.getLogger(UserDirectory.class);
+
+    static final List<String> TRACKED_ROLES = List.of("doctor", "patient", "employee");
+    private static final int PAGE_SIZE = 100;
+
+    public record Entry(UserRepresentation user, Set<String> roles, long writtenAt) {
+        public boolean hasRole(String roleName) {
+            return roles.contains(roleName);
+        }
+
+        public String attribute(String key) {
+            Map<String, List<String>> attributes = user.getAttributes();
+            if (attributes != null && attributes.containsKey(key) && !attributes.get(key).isEmpty()) {
+                return attributes.get(key).get(0);
+            }
+            return null;
+        }
+
+        public List<String> attributeValues(String key) {
+            Map<String, List<String>> attributes = user.getAttributes();
+            return attributes != null && attributes.get(key) != null ? attributes.get(key) : List.of();
+        }
+    }
+
+    private final Keycloak keycloak;
+    private final RoleRegistry roleRegistry;
+    private final boolean enabled;
+    private final long maxStalenessMs;
+
+    private final Map<String, Entry> byId = new ConcurrentHashMap<>();
+    private final Map<String, String> idByUsername = new ConcurrentHashMap<>();
+    private volatile long lastSyncAt = 0;
+    private volatile long lastSyncDurationMs = 0;
+    private volatile DirectoryIndexes indexes = new DirectoryIndexes();
+    private volatile long lastIndexRebuildMs = 0;
+
+    @Value("${KEYCLOAK_REALM}")
+    private String realm;
+
+    public UserDirectory(Keycloak keycloak,
+                         RoleRegistry roleRegistry,
+                         @Value("${journal.directory.enabled:true}") boolean enabled,
+                         @Value("${journal.directory.max-staleness-ms:120000}") long maxStalenessMs) {
+        this.keycloak = keycloak;
+        this.roleRegistry = roleRegistry;
+        this.enabled = enabled;
+        this.maxStalenessMs = maxStalenessMs;
+    }
+
+    public boolean isFresh() {
+        return enabled && lastSyncAt > 0 && System.currentTimeMillis() - lastSyncAt <= maxStalenessMs;
+    }
+
+    public Optional<Entry> findById(String userId) {
+        if (!isFresh() || userId == null) {
+            return Optional.empty();
+        }
+        return Optional.ofNullable(byId.get(userId));
+    }
+
+    public Optional<Entry> findByUsername(String username) {
+        if (!isFresh() || username == null) {
+            return Optional.empty();
+        }
+        String userId = idByUsername.get(key(username));
+        return userId != null ? Optional.ofNullable(byId.get(userId)) : Optional.empty();
+    }
+
+    // Users holding the role in the given organization, or empty when the replica is stale
+    public Optional<List<Entry>> findByOrganization(String orgName, String roleName) {
+        if (!isFresh()) {
+            return Optional.empty();
+        }
+        return Optional.of(entries(indexes.organizationMembers(roleName, orgName)));
+    }
+
+    public Optional<List<Entry>> findByRole(String roleName) {
+        if (!isFresh()) {
+            return Optional.empty();
+        }
+        return Optional.of(entries(indexes.roleMembers(roleName)));
+    }
+
+    // The doctor's patients in panel order; empty unless every listed patient is in the replica
+    public Optional<List<Entry>> findPatientsOf(String doctorUsername) {
+        Optional<Entry> doctor = findByUsername(doctorUsername);
+        if (doctor.isEmpty()) {
+            return Optional.empty();
+        }
+        long listed = doctor.get().attributeValues("patients").stream().filter(Objects::nonNull).count();
+        List<Entry> patients = entries(indexes.patientsOf(doctor.get().user().getId()));
+        return patients.size() == listed ? Optional.of(patients) : Optional.empty();
+    }
+
+    // Write-through from registrations; the created user plus the role it was given
+    public void put(String userId, UserRepresentation user, String roleName) {
+        if (!enabled) {
+            return;
+        }
+        UserRepresentation copy = copyOf(user);
+        copy.setId(userId);
+        Entry previous = byId.get(userId);
+        Set<String> roles = new HashSet<>(previous != null ? previous.roles() : Set.of());
+        if (TRACKED_ROLES.contains(roleName)) {
+            roles.add(roleName);
+        }
+        store(new Entry(copy, Collections.unmodifiableSet(roles), System.currentTimeMillis()));
+    }
+
+    // Write-through from attribute updates, e.g. a doctor's patient list
+    public void updateAttributes(String userId, Map<String, List<String>> attributes) {
+        Entry previous = byId.get(userId);
+        if (!enabled || previous == null) {
+            return;
+        }
+        UserRepresentation user = copyOf(previous.user());
+        user.setAttributes(copyOf(attributes));
+        store(new Entry(user, previous.roles(), System.currentTimeMillis()));
+    }
+
+    @Scheduled(fixedDelayString = "${journal.directory.sync-interval-ms:60000}", initialDelay = 0)
+    public void sync() {
+        if (!enabled) {
+            return;
+        }
+        long startedAt = System.currentTimeMillis();
+        try {
+            Map<String, Set<String>> rolesById = new HashMap<>();
+            for (String roleName : TRACKED_ROLES) {
+                for (String userId : roleRegistry.memberIds(roleName)) {
+                    rolesById.computeIfAbsent(userId, id -> new HashSet<>()).add(roleName);
+                }
+            }
+
+            Set<String> seen = new HashSet<>();
+            int first = 0;
+            List<UserRepresentation> page;
+            do {
+                page = keycloak.realm(realm).users().search(null, first, PAGE_SIZE, false);
+                for (UserRepresentation user : page) {
+                    seen.add(user.getId());
+                    Entry current = byId.get(user.getId());
+                    // entries written locally during this pass are newer than what we just read
+                    if (current == null || current.writtenAt() < startedAt) {
+                        Set<String> roles = rolesById.getOrDefault(user.getId(), Set.of());
+                        store(new Entry(user, Collections.unmodifiableSet(roles), startedAt));
+                    }
+                }
+                first += PAGE_SIZE;
+            } while (page.size() == PAGE_SIZE);
+
+            for (Entry entry : List.copyOf(byId.values())) {
+                if (!seen.contains(entry.user().getId()) && entry.writtenAt() < startedAt) {
+                    remove(entry);
+                }
+            }
+
+            rebuildIndexes();
+            lastSyncAt = startedAt;
+            lastSyncDurationMs = System.currentTimeMillis() - startedAt;
+        } catch (Exception e) {
+            log.warn("Directory sync failed, serving from Keycloak until the next sync: {}", e.getMessage());
+        }
+    }
+
+    public int size() {
+        return byId.size();
+    }
+
+    // Rebuilds the indexes from the replica off to the side, then swaps them in
+    synchronized void rebuildIndexes() {
+        long start = System.nanoTime();
+        indexes = DirectoryIndexes.build(byId.values(), idByUsername, byId);
+        lastIndexRebuildMs = (System.nanoTime() - start) / 1_000_000;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("journal.directory.users", byId, Map::size).register(registry);
+        Gauge.builder("journal.directory.staleness.ms", this,
+                directory -> directory.lastSyncAt == 0 ? -1 : System.currentTimeMillis() - directory.lastSyncAt)
+                .register(registry);
+        Gauge.builder("journal.directory.sync.duration.ms", this, directory -> directory.lastSyncDurationMs)
+                .register(registry);
+        Gauge.builder("journal.directory.index.size", this, directory -> directory.indexes.organizationSize())
+                .tag("index", "organization")
+                .register(registry);
+        Gauge.builder("journal.directory.index.size", this, directory -> directory.indexes.roleSize())
+                .tag("index", "role")
+                .register(registry);
+        Gauge.builder("journal.directory.index.size", this, directory -> directory.indexes.panelSize())
+                .tag("index", "doctor-patients")
+                .register(registry);
+        Gauge.builder("journal.directory.index.rebuild.ms", this, directory -> directory.lastIndexRebuildMs)
+                .register(registry);
+    }
+
+    private synchronized void store(Entry entry) {
+        Entry previous = byId.put(entry.user().getId(), entry);
+        if (previous != null && previous.user().getUsername() != null
+                && !previous.user().getUsername().equalsIgnoreCase(entry.user().getUsername())) {
+            idByUsername.remove(key(previous.user().getUsername()));
+        }
+        if (entry.user().getUsername() != null) {
+            idByUsername.put(key(entry.user().getUsername()), entry.user().getId());
+        }
+        if (previous != null) {
+            indexes.remove(previous, idByUsername, byId);
+        }
+        indexes.add(entry, idByUsername, byId);
+    }
+
+    private synchronized void remove(Entry entry) {
+        byId.remove(entry.user().getId());
+        if (entry.user().getUsername() != null) {
+            idByUsername.remove(key(entry.user().getUsername()));
+        }
+        indexes.remove(entry, idByUsername, byId);
+    }
+
+    private List<Entry> entries(Collection<String> userIds) {
+        List<Entry> entries = new ArrayList<>(userIds.size());
+        for (String userId : userIds) {
+            Entry entry = byId.get(userId);
+            if (entry != null) {
+                entries.add(entry);
+            }
+        }
+        return entries;
+    }
+
+    private static UserRepresentation copyOf(UserRepresentation source) {
+        UserRepresentation copy = new UserRepresentation();
+        copy.setId(source.getId());
+        copy.setUsername(source.getUsername());
+        copy.setEmail(source.getEmail());
+        copy.setFirstName(source.getFirstName());
+        copy.setLastName(source.getLastName());
+        copy.setEnabled(source.isEnabled());
+        copy.setAttributes(copyOf(source.getAttributes()));
+        return copy;
+    }
+
+    private static Map<String, List<String>> copyOf(Map<String, List<String>> attributes) {
+        Map<String, List<String>> copy = new HashMap<>();
+        if (attributes != null) {
+            attributes.forEach((name, values) -> copy.put(name,
+                    values != null ? Collections.unmodifiableList(new ArrayList<>(values)) : List.of()));
+        }
+        return copy;
+    }
+
+    // Keycloak usernames are case-insensitive
+    private static String key(String username) {
+        return username.toLowerCase(Locale.ROOT);
+    }
+}
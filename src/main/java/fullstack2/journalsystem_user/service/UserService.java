@@ -2,24 +2,45 @@ package fullstack2.journalsystem_user.service;
 
 import fullstack2.journalsystem_user.Models.CreateUserModel;
 import fullstack2.journalsystem_user.Models.LocalUser;
+import fullstack2.journalsystem_user.Models.LoginResult;
+import com.nimbusds.jwt.JWT;
+import com.nimbusds.jwt.JWTParser;
+import jakarta.ws.rs.NotFoundException;
 import jakarta.ws.rs.core.Response;
-import org.keycloak.OAuth2Constants;
 import org.keycloak.admin.client.CreatedResponseUtil;
 import org.keycloak.admin.client.Keycloak;
-import org.keycloak.admin.client.KeycloakBuilder;
+import org.keycloak.representations.AccessTokenResponse;
 import org.keycloak.representations.idm.CredentialRepresentation;
 import org.keycloak.representations.idm.RoleRepresentation;
 import org.keycloak.representations.idm.UserRepresentation;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.oauth2.jwt.Jwt;
 import org.springframework.stereotype.Service;
 
+import java.text.ParseException;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
 
 @Service
 public class UserService {
 
+    private static final Logger log = LoggerFactory.getLogger(UserService.class);
+
     private final Keycloak keycloak;
+    private final RoleRegistry roleRegistry;
+    private final PasswordGrantClient passwordGrantClient;
+    private final UserDirectory directory;
+    private final SingleFlight<LocalUser> userLookups;
+    private final NegativeCache negativeCache;
+    private final LastKnown<LocalUser> lastKnownUsers;
 
     @Value("${KEYCLOAK_REALM}")
     private String realm;
@@ -30,54 +51,175 @@ public class UserService {
     @Value("${KEYCLOAK_CLIENT_SECRET}")
     private String clientSecret;
 
-    public UserService(Keycloak keycloak) {
+    public UserService(Keycloak keycloak, RoleRegistry roleRegistry, PasswordGrantClient passwordGrantClient,
+                       UserDirectory directory,
+                       SingleFlight<LocalUser> userLookups,
+                       NegativeCache negativeCache,
+                       LastKnown<LocalUser> lastKnownUsers) {
         this.keycloak = keycloak;
+        this.roleRegistry = roleRegistry;
+        this.passwordGrantClient = passwordGrantClient;
+        this.directory = directory;
+        this.userLookups = userLookups;
+        this.negativeCache = negativeCache;
+        this.lastKnownUsers = lastKnownUsers;
     }
 
     public LocalUser findUserByUsername(String username) {
-        // Query Keycloak for users matching the username
+        Optional<UserDirectory.Entry> replica = directory.findByUsername(username);
+        if (replica.isPresent()) {
+            return toLocalUser(replica.get().user(), replica.get().roles());
+        }
+        // Recently reported missing by Keycloak: answer as an unknown user without asking again
+        if (negativeCache.isUnknownUsername(username)) {
+            return new LocalUser();
+        }
+
+        // Query Keycloak for users matching the username; concurrent lookups of one username share the query
         try{
-            List<UserRepresentation> users = keycloak.realm(realm)
-                    .users()
-                    .searchByUsername(username, true);
+            return userLookups.run(username.toLowerCase(Locale.ROOT), () -> {
+                List<UserRepresentation> users = keycloak.realm(realm)
+                        .users()
+                        .searchByUsername(username, true);
 
-            LocalUser localUser = new LocalUser();
+                LocalUser localUser = new LocalUser();
 
-            if (users.isEmpty()) {
-                System.out.println("No user found with username: " + username);
-            } else {
+                if (users.isEmpty()) {
+                    log.debug("No user found with username: {}", username);
+                    negativeCache.recordUnknownUsername(username);
+                } else {
 
-                UserRepresentation user = users.get(0);
-                localUser = userRepToLocalUser(user);
-            }
-            return localUser;
+                    UserRepresentation user = users.get(0);
+                    localUser = userRepToLocalUser(user);
+                    lastKnownUsers.remember(username.toLowerCase(Locale.ROOT), localUser);
+                }
+                return localUser;
+            });
         } catch (Exception e){
-            e.printStackTrace();
+            // Keycloak unavailable: the last profile read for this user, marked stale
+            LocalUser stale = lastKnownUsers.recall(username.toLowerCase(Locale.ROOT), e);
+            if (stale != null) {
+                return stale;
+            }
+            log.error("User lookup failed for username {}", username, e);
+        }
+        return null;
+    }
+
+    public LocalUser findUserById(String userId) {
+        Optional<UserDirectory.Entry> replica = directory.findById(userId);
+        if (replica.isPresent()) {
+            return toLocalUser(replica.get().user(), replica.get().roles());
+        }
+        if (negativeCache.isUnknownId(userId)) {
+            return new LocalUser();
+        }
+
+        try {
+            return userLookups.run("id:" + userId, () -> {
+                try {
+                    LocalUser localUser = userRepToLocalUser(keycloak.realm(realm).users().get(userId).toRepresentation());
+                    lastKnownUsers.remember("id:" + userId, localUser);
+                    return localUser;
+                } catch (NotFoundException e) {
+                    log.debug("No user found with ID: {}", userId);
+                    negativeCache.recordUnknownId(userId);
+                    return new LocalUser();
+                }
+            });
+        } catch (Exception e) {
+            // Keycloak unavailable: the last profile read for this user, marked stale
+            LocalUser stale = lastKnownUsers.recall("id:" + userId, e);
+            if (stale != null) {
+                return stale;
+            }
+            log.error("User lookup failed for ID {}", userId, e);
         }
         return null;
     }
 
+    // The caller's own profile, read from the validated access token. Keycloak is only asked when
+    // the token lacks what identifies the caller (subject, username or realm roles), e.g. when a
+    // client scope drops them; a missing email is left empty rather than fetched on every call
+    public LocalUser currentUser(Jwt jwt) {
+        LocalUser localUser = new LocalUser();
+        localUser.setUserId(jwt.getSubject());
+        localUser.setUserName(jwt.getClaimAsString("preferred_username"));
+        localUser.setEmail(jwt.getClaimAsString("email"));
+        Collection<String> roles = realmRoles(jwt);
+        if (roles != null) {
+            localUser.setRole(primaryRole(roles));
+        }
+
+        if (localUser.getUserId() != null && localUser.getUserName() != null && roles != null) {
+            return localUser;
+        }
+        LocalUser stored = null;
+        if (localUser.getUserName() != null) {
+            stored = findUserByUsername(localUser.getUserName());
+        } else if (localUser.getUserId() != null) {
+            stored = findUserById(localUser.getUserId());
+        }
+        if (stored != null) {
+            if (localUser.getUserId() == null) {
+                localUser.setUserId(stored.getUserId());
+            }
+            if (localUser.getUserName() == null) {
+                localUser.setUserName(stored.getUserName());
+            }
+            if (localUser.getEmail() == null) {
+                localUser.setEmail(stored.getEmail());
+            }
+            if (roles == null) {
+                localUser.setRole(stored.getRole());
+            }
+        }
+        return localUser;
+    }
+
     public LocalUser verifyAndGetUser(String username, String password) {
-        // 1. Attempt to authenticate the user directly with their credentials
-        try (Keycloak userClient = KeycloakBuilder.builder()
-                .serverUrl(serverUrl)
-                .realm(realm)
-                .clientId(clientId) // Your user-mgmt-service client ID
-                .clientSecret(clientSecret)
-                .username(username)
-                .password(password)
-                .grantType(OAuth2Constants.PASSWORD) // This flow verifies the user's password
-                .build()) {
-
-            // 2. Try to get a token. If this fails, it throws an exception (401)
-            userClient.tokenManager().getAccessToken();
-
-            // 3. If we reached here, password is valid! Now get the full details using Admin Client
-            UserRepresentation user =keycloak.realm(realm)
-                    .users()
-                    .searchByUsername(username, true)
-                    .get(0);
-            return userRepToLocalUser(user);
+        return login(username, password).getUser();
+    }
+
+    public LoginResult login(String username, String password) {
+        // 1. Attempt to authenticate the user directly with their credentials.
+        //    If the password is wrong this throws, so we never reach the lookup below
+        AccessTokenResponse tokens = passwordGrantClient.grantToken(username, password);
+
+        // 2. The issued token already names the user and their realm roles
+        Jwt jwt = readToken(tokens.getToken());
+        if (jwt != null) {
+            return new LoginResult(currentUser(jwt), tokens.getToken(), tokens.getExpiresIn());
+        }
+
+        // 3. Not a JWT: get the full details using Admin Client
+        UserRepresentation user =keycloak.realm(realm)
+                .users()
+                .searchByUsername(username, true)
+                .get(0);
+        return new LoginResult(userRepToLocalUser(user), tokens.getToken(), tokens.getExpiresIn());
+    }
+
+    // Claims of a token received directly from the token endpoint over our own connection, so
+    // its signature is not checked again; null when the token is not a JWT
+    static Jwt readToken(String token) {
+        if (token == null) {
+            return null;
+        }
+        try {
+            JWT parsed = JWTParser.parse(token);
+            Map<String, Object> claims = new HashMap<>(parsed.getJWTClaimsSet().getClaims());
+            if (claims.isEmpty()) {
+                return null;
+            }
+            // Spring's Jwt expects Instants for its timestamp claims
+            claims.replaceAll((name, value) -> value instanceof Date date ? date.toInstant() : value);
+            return Jwt.withTokenValue(token)
+                    .headers(headers -> headers.putAll(parsed.getHeader().toJSONObject()))
+                    .claims(values -> values.putAll(claims))
+                    .build();
+        } catch (ParseException e) {
+            return null;
         }
     }
 
@@ -105,20 +247,14 @@ public class UserService {
             String userId = CreatedResponseUtil.getCreatedId(response);
 
             // 5. Assign the Realm Role
-            assignRealmRole(userId, request.getRole());
+            roleRegistry.assignRealmRole(userId, request.getRole());
+            directory.put(userId, user, request.getRole());
+            negativeCache.forget(userId, user.getUsername());
         } else {
             throw new RuntimeException("Keycloak user creation failed with status: " + response.getStatus());
         }
     }
 
-    private void assignRealmRole(String userId, String roleName) {
-        // Fetch the role representation from the realm
-        RoleRepresentation role = keycloak.realm(realm).roles().get(roleName).toRepresentation();
-
-        // Add the role to the user at the realm level
-        keycloak.realm(realm).users().get(userId).roles().realmLevel().add(Collections.singletonList(role));
-    }
-
     private LocalUser userRepToLocalUser(UserRepresentation user){
         List<RoleRepresentation> realmRoles = keycloak.realm(realm)
                 .users()
@@ -127,23 +263,43 @@ public class UserService {
                 .realmLevel()
                 .listAll();
 
-        // 2. Extract the names from the RoleRepresentation objects
-        List<String> roleNames = realmRoles.stream()
+        return toLocalUser(user, roleNames(realmRoles));
+    }
+
+    // 2. Extract the names from the RoleRepresentation objects
+    static List<String> roleNames(List<RoleRepresentation> realmRoles) {
+        return realmRoles.stream()
                 .map(RoleRepresentation::getName)
                 .toList();
+    }
 
+    LocalUser toLocalUser(UserRepresentation user, Collection<String> roleNames) {
         LocalUser localUser = new LocalUser();
         localUser.setUserId(user.getId());
         localUser.setUserName(user.getUsername());
         localUser.setEmail(user.getEmail());
+        localUser.setRole(primaryRole(roleNames));
+        return localUser;
+    }
 
+    // The application role of a user holding several realm roles
+    static String primaryRole(Collection<String> roleNames) {
         if (roleNames.contains("doctor")){
-            localUser.setRole("doctor");
+            return "doctor";
         } else if (roleNames.contains("patient")) {
-            localUser.setRole("patient");
+            return "patient";
         } else if (roleNames.contains("employee")) {
-            localUser.setRole("employee");
+            return "employee";
         }
-        return localUser;
+        return null;
+    }
+
+    // realm_access.roles of a Keycloak access token, or null when the token does not carry them
+    static Collection<String> realmRoles(Jwt jwt) {
+        Map<String, Object> realmAccess = jwt.getClaimAsMap("realm_access");
+        if (realmAccess == null || !(realmAccess.get("roles") instanceof Collection<?> roles)) {
+            return null;
+        }
+        return roles.stream().map(String::valueOf).toList();
     }
 }
\ No newline at end of file
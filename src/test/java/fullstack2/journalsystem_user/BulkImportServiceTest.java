@@ -0,0 +1,234 @@
+package fullstack2.journalsystem_user;
+
+import fullstack2.journalsystem_user.Models.CreateDoctorModel;
+import fullstack2.journalsystem_user.Models.CreateEmployeeModel;
+import fullstack2.journalsystem_user.Models.CreatePatientModel;
+import fullstack2.journalsystem_user.service.BulkImportService;
+import fullstack2.journalsystem_user.service.DoctorService;
+import fullstack2.journalsystem_user.service.EmployeeService;
+import fullstack2.journalsystem_user.service.FanOutExecutor;
+import fullstack2.journalsystem_user.service.KeycloakUnavailableException;
+import fullstack2.journalsystem_user.service.NegativeCache;
+import fullstack2.journalsystem_user.service.PatientService;
+import fullstack2.journalsystem_user.service.ProfileCache;
+import fullstack2.journalsystem_user.service.RoleRegistry;
+import fullstack2.journalsystem_user.service.UserDirectory;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.ws.rs.core.Response;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.keycloak.admin.client.Keycloak;
+import org.keycloak.admin.client.resource.RealmResource;
+import org.keycloak.admin.client.resource.RoleMappingResource;
+import org.keycloak.admin.client.resource.RoleResource;
+import org.keycloak.admin.client.resource.RoleScopeResource;
+import org.keycloak.admin.client.resource.RolesResource;
+import org.keycloak.admin.client.resource.UserResource;
+import org.keycloak.admin.client.resource.UsersResource;
+import org.keycloak.representations.idm.PartialImportRepresentation;
+import org.keycloak.representations.idm.RoleRepresentation;
+import org.keycloak.representations.idm.UserRepresentation;
+import tools.jackson.databind.JsonNode;
+import tools.jackson.databind.json.JsonMapper;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.lang.reflect.Field;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+public class BulkImportServiceTest {
+
+    private final JsonMapper jsonMapper = JsonMapper.builder().build();
+
+    private RealmResource realm;
+    private UsersResource users;
+    private BulkImportService service;
+    private final List<PartialImportRepresentation> imports = new ArrayList<>();
+
+    @BeforeEach
+    void setup() throws Exception {
+        Keycloak keycloak = mock(Keycloak.class);
+        realm = mock(RealmResource.class);
+        users = mock(UsersResource.class);
+        when(keycloak.realm("journal")).thenReturn(realm);
+        when(realm.users()).thenReturn(users);
+
+        RoleRegistry roleRegistry = new RoleRegistry(keycloak);
+        setField(roleRegistry, "realm", "journal");
+        UserDirectory directory = new UserDirectory(keycloak, roleRegistry, false, 120000);
+        NegativeCache negativeCache = new NegativeCache(30, 1000);
+        FanOutExecutor fanOut = new FanOutExecutor(4, 5000, false, new SimpleMeterRegistry());
+
+        PatientService patientService = new PatientService(keycloak, roleRegistry,
+                new ProfileCache<>("patientProfiles", 100, Duration.ofMinutes(5), CreatePatientModel::getUsername),
+                new ProfileCache<>("doctorProfiles", 100, Duration.ofMinutes(5), CreateDoctorModel::getUsername),
+                fanOut, directory, negativeCache);
+        setField(patientService, "realm", "journal");
+        DoctorService doctorService = new DoctorService(keycloak, roleRegistry,
+                new ProfileCache<>("doctorProfiles", 100, Duration.ofMinutes(5), CreateDoctorModel::getUsername),
+                fanOut, directory, negativeCache);
+        EmployeeService employeeService = new EmployeeService(keycloak, roleRegistry,
+                new ProfileCache<>("employeeProfiles", 100, Duration.ofMinutes(5), CreateEmployeeModel::getUsername),
+                fanOut, directory, negativeCache);
+
+        service = new BulkImportService(keycloak, jsonMapper, patientService, doctorService, employeeService, 2, 2);
+        setField(service, "realm", "journal");
+    }
+
+    @AfterEach
+    void tearDown() {
+        service.shutdown();
+    }
+
+    @Test
+    @DisplayName("importPatients batches records into partial imports and reports every line in order")
+    void importPatients_streamsResultsInOrder() throws Exception {
+        // existing usernames are skipped by Keycloak, the rest are added
+        when(realm.partialImport(any(PartialImportRepresentation.class))).thenAnswer(invocation -> {
+            PartialImportRepresentation request = invocation.getArgument(0);
+            synchronized (imports) {
+                imports.add(request);
+            }
+            List<Map<String, Object>> results = new ArrayList<>();
+            for (UserRepresentation user : request.getUsers()) {
+                boolean exists = user.getUsername().equals("pat2");
+                results.add(Map.of("action", exists ? "SKIPPED" : "ADDED",
+                        "resourceName", user.getUsername(), "id", "kc-" + user.getUsername()));
+            }
+            Response response = mock(Response.class);
+            when(response.getStatus()).thenReturn(200);
+            when(response.readEntity(Map.class)).thenReturn(Map.of("results", results));
+            return response;
+        });
+
+        String body = String.join("\n",
+                patientJson("pat1"),
+                "",
+                "{not json",
+                patientJson("pat2"),
+                "{\"email\":\"nobody@x\",\"age\":30}",
+                patientJson("pat3"));
+
+        List<JsonNode> results = run(body);
+
+        assertEquals(List.of(1L, 3L, 4L, 5L, 6L), results.stream().map(r -> r.get("line").asLong()).toList());
+        assertEquals(List.of("CREATED", "FAILED", "SKIPPED", "FAILED", "CREATED"),
+                results.stream().map(r -> r.get("status").asString()).toList());
+        assertEquals("kc-pat1", results.get(0).get("userId").asString());
+        assertEquals("username is required", results.get(3).get("message").asString());
+
+        // three batches of two lines, each with at least one valid record
+        assertEquals(3, imports.size());
+        assertTrue(imports.stream().flatMap(i -> i.getUsers().stream())
+                .allMatch(user -> user.getRealmRoles().equals(List.of("patient"))));
+        verify(users, never()).create(any());
+    }
+
+    @Test
+    @DisplayName("a batch rejected by partial import is registered record by record")
+    void importPatients_fallsBackPerRecord() throws Exception {
+        Response rejected = mock(Response.class);
+        when(rejected.getStatus()).thenReturn(400);
+        when(realm.partialImport(any(PartialImportRepresentation.class))).thenReturn(rejected);
+
+        Response conflict = mock(Response.class);
+        when(conflict.getStatus()).thenReturn(409);
+        when(users.create(any(UserRepresentation.class))).thenReturn(conflict);
+
+        List<JsonNode> results = run(patientJson("pat1") + "\n" + patientJson("pat2"));
+
+        assertEquals(2, results.size());
+        assertEquals("FAILED", results.get(0).get("status").asString());
+        assertEquals("Patient registration failed. Status: 409", results.get(1).get("message").asString());
+        verify(users, times(2)).create(any(UserRepresentation.class));
+    }
+
+    @Test
+    @DisplayName("records registered one by one report their user ID like partially imported ones")
+    void importPatients_fallbackReportsUserId() throws Exception {
+        Response rejected = mock(Response.class);
+        when(rejected.getStatus()).thenReturn(400);
+        when(realm.partialImport(any(PartialImportRepresentation.class))).thenReturn(rejected);
+
+        Response created = mock(Response.class);
+        when(created.getStatus()).thenReturn(201);
+        when(created.getStatusInfo()).thenReturn(Response.Status.CREATED);
+        when(created.getLocation()).thenReturn(URI.create("http://keycloak:8080/admin/realms/journal/users/kc-new"));
+        when(users.create(any(UserRepresentation.class))).thenReturn(created);
+
+        RolesResource roles = mock(RolesResource.class);
+        RoleResource patientRole = mock(RoleResource.class);
+        when(realm.roles()).thenReturn(roles);
+        when(roles.get("patient")).thenReturn(patientRole);
+        when(patientRole.toRepresentation()).thenReturn(new RoleRepresentation("patient", null, false));
+        UserResource newUser = mock(UserResource.class);
+        RoleMappingResource roleMappings = mock(RoleMappingResource.class);
+        when(users.get("kc-new")).thenReturn(newUser);
+        when(newUser.roles()).thenReturn(roleMappings);
+        when(roleMappings.realmLevel()).thenReturn(mock(RoleScopeResource.class));
+
+        List<JsonNode> results = run(patientJson("pat1"));
+
+        assertEquals("CREATED", results.get(0).get("status").asString());
+        assertEquals("kc-new", results.get(0).get("userId").asString());
+        verify(newUser, never()).toRepresentation();
+    }
+
+    @Test
+    @DisplayName("a batch is failed, not registered record by record, when Keycloak is unavailable or fails")
+    void importPatients_failsBatchWhenKeycloakFails() throws Exception {
+        Response serverError = mock(Response.class);
+        when(serverError.getStatus()).thenReturn(503);
+        Response forbidden = mock(Response.class);
+        when(forbidden.getStatus()).thenReturn(403);
+        when(realm.partialImport(any(PartialImportRepresentation.class)))
+                .thenReturn(serverError)
+                .thenReturn(forbidden)
+                .thenThrow(new KeycloakUnavailableException("Keycloak circuit breaker is OPEN"));
+
+        List<JsonNode> results = new ArrayList<>();
+        results.addAll(run(patientJson("pat1") + "\n" + patientJson("pat2")));
+        results.addAll(run(patientJson("pat3")));
+        results.addAll(run(patientJson("pat4")));
+
+        assertEquals(4, results.size());
+        assertTrue(results.stream().allMatch(result -> "FAILED".equals(result.get("status").asString())));
+        assertEquals("pat2", results.get(1).get("username").asString());
+        assertEquals("Partial import failed: Partial import failed with status: 503", results.get(0).get("message").asString());
+        assertEquals("Partial import failed: Keycloak circuit breaker is OPEN", results.get(3).get("message").asString());
+        verify(users, never()).create(any(UserRepresentation.class));
+    }
+
+    private List<JsonNode> run(String body) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        service.importPatients(new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8)), out);
+
+        List<JsonNode> results = new ArrayList<>();
+        for (String line : out.toString(StandardCharsets.UTF_8).split("\n")) {
+            results.add(jsonMapper.readTree(line));
+        }
+        return results;
+    }
+
+    private static String patientJson(String username) {
+        return "{\"username\":\"" + username + "\",\"email\":\"" + username + "@x\",\"password\":\"pw\","
+                + "\"firstName\":\"A\",\"lastName\":\"B\",\"telephoneNr\":\"070\",\"address\":\"Street\","
+                + "\"age\":30,\"gender\":\"female\"}";
+    }
+
+    private static void setField(Object target, String fieldName, Object value) throws Exception {
+        Field f = target.getClass().getDeclaredField(fieldName);
+        f.setAccessible(true);
+        f.set(target, value);
+    }
+}
@@ -0,0 +1,71 @@
+package fullstack2.journalsystem_user;
+
+import fullstack2.journalsystem_user.config.CachingJwtDecoder;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.security.oauth2.jwt.BadJwtException;
+import org.springframework.security.oauth2.jwt.Jwt;
+import org.springframework.security.oauth2.jwt.JwtDecoder;
+
+import java.time.Duration;
+import java.time.Instant;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+public class CachingJwtDecoderTest {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private JwtDecoder delegate;
+    private CachingJwtDecoder decoder;
+
+    @BeforeEach
+    void setup() {
+        delegate = mock(JwtDecoder.class);
+        decoder = new CachingJwtDecoder(delegate, 100, Duration.ofMinutes(5));
+        decoder.bindTo(registry);
+    }
+
+    @Test
+    @DisplayName("a token is verified once and then served from the cache")
+    void verifiesEachTokenOnce() {
+        when(delegate.decode("token-a")).thenReturn(jwt("token-a", Instant.now().plusSeconds(300)));
+        when(delegate.decode("token-b")).thenReturn(jwt("token-b", Instant.now().plusSeconds(300)));
+
+        for (int i = 0; i < 10; i++) {
+            assertEquals("token-a", decoder.decode("token-a").getTokenValue());
+        }
+        assertEquals("token-b", decoder.decode("token-b").getTokenValue());
+
+        verify(delegate, times(1)).decode("token-a");
+        verify(delegate, times(1)).decode("token-b");
+        assertEquals(9, registry.get("cache.gets").tag("cache", "verifiedTokens").tag("result", "hit").functionCounter().count());
+        assertEquals(2, registry.get("cache.gets").tag("cache", "verifiedTokens").tag("result", "miss").functionCounter().count());
+    }
+
+    @Test
+    @DisplayName("expired tokens and rejected tokens are verified every time")
+    void neverServesExpiredOrRejectedTokens() {
+        when(delegate.decode("expired")).thenReturn(jwt("expired", Instant.now().minusSeconds(1)));
+        when(delegate.decode("forged")).thenThrow(new BadJwtException("bad signature"));
+
+        decoder.decode("expired");
+        decoder.decode("expired");
+        assertThrows(BadJwtException.class, () -> decoder.decode("forged"));
+        assertThrows(BadJwtException.class, () -> decoder.decode("forged"));
+
+        verify(delegate, atLeast(2)).decode("expired");
+        verify(delegate, times(2)).decode("forged");
+    }
+
+    private static Jwt jwt(String token, Instant expiresAt) {
+        return Jwt.withTokenValue(token)
+                .header("alg", "RS256")
+                .subject("patient1")
+                .issuedAt(expiresAt.minusSeconds(600))
+                .expiresAt(expiresAt)
+                .build();
+    }
+}
@@ -1,7 +1,14 @@
 package fullstack2.journalsystem_user;
 
 import fullstack2.journalsystem_user.Models.CreateDoctorModel;
+import fullstack2.journalsystem_user.service.RoleRegistry;
+import fullstack2.journalsystem_user.service.UserDirectory;
 import fullstack2.journalsystem_user.service.DoctorService;
+import fullstack2.journalsystem_user.service.FanOutExecutor;
+import fullstack2.journalsystem_user.service.NegativeCache;
+import fullstack2.journalsystem_user.service.Page;
+import fullstack2.journalsystem_user.service.ProfileCache;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import jakarta.ws.rs.core.Response;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
@@ -13,8 +20,14 @@ import org.keycloak.representations.idm.UserRepresentation;
 
 import java.lang.reflect.Field;
 import java.net.URI;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.Mockito.*;
@@ -23,6 +36,7 @@ public class DoctorServiceTest {
 
     private Keycloak keycloak;
     private DoctorService service;
+    private ProfileCache<CreateDoctorModel> doctorCache;
 
     private RealmResource realm;
     private UsersResource users;
@@ -34,7 +48,10 @@ public class DoctorServiceTest {
     @BeforeEach
     void setup() throws Exception {
         keycloak = mock(Keycloak.class);
-        service = new DoctorService(keycloak);
+        doctorCache = new ProfileCache<>("doctorProfiles", 100, Duration.ofMinutes(5), CreateDoctorModel::getUsername);
+        service = new DoctorService(keycloak, roleRegistry(keycloak), doctorCache,
+                new FanOutExecutor(4, 5000, false, new SimpleMeterRegistry()),
+                new UserDirectory(keycloak, roleRegistry(keycloak), false, 120000), new NegativeCache(30, 1000));
 
         setField(service, "realm", "journal");
         setField(service, "serverUrl", "http://keycloak:8080");
@@ -105,6 +122,173 @@ public class DoctorServiceTest {
         assertEquals("doctor", result.getRole());
     }
 
+    @Test
+    @DisplayName("getDoctorByUsername serves repeat lookups from the profile cache")
+    void getDoctorByUsername_cached() {
+        UserRepresentation brief = new UserRepresentation();
+        brief.setId("kc-doc");
+        when(users.searchByUsername("doc1", true)).thenReturn(List.of(brief));
+
+        UserRepresentation full = new UserRepresentation();
+        full.setId("kc-doc");
+        full.setUsername("doc1");
+        when(userResource.toRepresentation()).thenReturn(full);
+        when(realmLevel.listAll()).thenReturn(List.of());
+
+        service.getDoctorByUsername("doc1");
+        CreateDoctorModel second = service.getDoctorByUsername("DOC1");
+
+        assertEquals("doc1", second.getUsername());
+        verify(users, times(1)).searchByUsername("doc1", true);
+        assertEquals(1, doctorCache.stats().hitCount());
+        assertEquals(1, doctorCache.stats().missCount());
+    }
+
+    @Test
+    @DisplayName("lookups by ID and by username derive the same role from several realm roles")
+    void roleIsTheSameOnBothLookupPaths() {
+        UserRepresentation brief = new UserRepresentation();
+        brief.setId("kc-doc");
+        when(users.searchByUsername("doc1", true)).thenReturn(List.of(brief));
+
+        UserRepresentation full = new UserRepresentation();
+        full.setId("kc-doc");
+        full.setUsername("doc1");
+        when(userResource.toRepresentation()).thenReturn(full);
+        RoleRepresentation defaultRoles = new RoleRepresentation();
+        defaultRoles.setName("default-roles-journal");
+        RoleRepresentation doctorRole = new RoleRepresentation();
+        doctorRole.setName("doctor");
+        when(realmLevel.listAll()).thenReturn(List.of(defaultRoles, doctorRole));
+
+        String byUsername = service.getDoctorByUsername("doc1").getRole();
+        doctorCache.invalidateAll();
+        String byId = service.getDoctorById("kc-doc").getRole();
+
+        assertEquals("doctor", byUsername);
+        assertEquals(byUsername, byId);
+        assertEquals(byId, service.getDoctorByUsername("doc1").getRole());
+    }
+
+    @Test
+    @DisplayName("getDoctorById result is also cached under the username")
+    void getDoctorById_populatesUsernameKey() {
+        UserRepresentation full = new UserRepresentation();
+        full.setId("kc-doc");
+        full.setUsername("doc1");
+        when(userResource.toRepresentation()).thenReturn(full);
+        when(realmLevel.listAll()).thenReturn(List.of());
+
+        service.getDoctorById("kc-doc");
+        service.getDoctorByUsername("doc1");
+        service.getDoctorById("kc-doc");
+
+        verify(userResource, times(1)).toRepresentation();
+        verify(users, never()).searchByUsername(anyString(), anyBoolean());
+    }
+
+    @Test
+    @DisplayName("getDoctorsByOrganization filters by role members without per-user calls")
+    void getDoctorsByOrganization_noPerUserCalls() {
+        UserRepresentation doc = new UserRepresentation();
+        doc.setId("kc-doc");
+        doc.setUsername("doc1");
+        doc.setAttributes(Map.of(
+                "organizationName", List.of("Org"),
+                "organizationAddress", List.of("Addr")
+        ));
+        UserRepresentation employee = new UserRepresentation();
+        employee.setId("kc-emp");
+        employee.setUsername("emp1");
+
+        when(users.searchByAttributes(0, 100, null, false, "organizationName:Org")).thenReturn(List.of(doc, employee));
+
+        RoleResource doctorRole = mock(RoleResource.class);
+        when(roles.get("doctor")).thenReturn(doctorRole);
+        UserRepresentation member = new UserRepresentation();
+        member.setId("kc-doc");
+        when(doctorRole.getUserMembers(true, 0, 100)).thenReturn(List.of(member));
+
+        List<CreateDoctorModel> result = service.getDoctorsByOrganization("Org");
+
+        assertEquals(1, result.size());
+        assertEquals("doc1", result.get(0).getUsername());
+        assertEquals("Addr", result.get(0).getOrganizationAddress());
+        verify(users, never()).get(anyString());
+    }
+
+    @Test
+    @DisplayName("getDoctorsByOrganization stops paging Keycloak once offset and limit are satisfied")
+    void getDoctorsByOrganization_pagesPushedDown() {
+        List<UserRepresentation> firstPage = new ArrayList<>();
+        List<UserRepresentation> members = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            UserRepresentation doc = new UserRepresentation();
+            doc.setId("kc-doc" + i);
+            doc.setUsername("doc" + i);
+            firstPage.add(doc);
+            // every other user in the organization is a doctor
+            if (i % 2 == 0) {
+                members.add(doc);
+            }
+        }
+        when(users.searchByAttributes(0, 100, null, false, "organizationName:Org")).thenReturn(firstPage);
+
+        RoleResource doctorRole = mock(RoleResource.class);
+        when(roles.get("doctor")).thenReturn(doctorRole);
+        when(doctorRole.getUserMembers(true, 0, 100)).thenReturn(members);
+
+        List<CreateDoctorModel> result = service.getDoctorsByOrganization("Org", new Page(2, 3));
+
+        assertEquals(List.of("doc4", "doc6", "doc8"), result.stream().map(CreateDoctorModel::getUsername).toList());
+        verify(users, never()).searchByAttributes(eq(100), anyInt(), any(), anyBoolean(), anyString());
+    }
+
+    @Test
+    @DisplayName("concurrent getDoctorByUsername calls share one Keycloak fetch")
+    void getDoctorByUsername_coalescesConcurrentLookups() throws Exception {
+        int callers = 20;
+        UserRepresentation brief = new UserRepresentation();
+        brief.setId("kc-doc");
+        // hold the first fetch open until every other caller is waiting on it; either spelling may lead
+        when(users.searchByUsername(argThat(name -> "doc1".equalsIgnoreCase(name)), eq(true))).thenAnswer(invocation -> {
+            long deadline = System.currentTimeMillis() + 5000;
+            while (doctorCache.loads().getCollapsedCount() < callers - 1 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(5);
+            }
+            return List.of(brief);
+        });
+        UserRepresentation full = new UserRepresentation();
+        full.setId("kc-doc");
+        full.setUsername("doc1");
+        when(userResource.toRepresentation()).thenReturn(full);
+        when(realmLevel.listAll()).thenReturn(List.of());
+
+        ExecutorService pool = Executors.newFixedThreadPool(callers);
+        try {
+            List<Future<CreateDoctorModel>> results = new ArrayList<>();
+            for (int i = 0; i < callers; i++) {
+                String username = i % 2 == 0 ? "doc1" : "DOC1";
+                results.add(pool.submit(() -> service.getDoctorByUsername(username)));
+            }
+            for (Future<CreateDoctorModel> result : results) {
+                assertEquals("doc1", result.get(10, TimeUnit.SECONDS).getUsername());
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+
+        verify(users, times(1)).searchByUsername(anyString(), eq(true));
+        assertEquals(1, doctorCache.loads().getLeaderCount());
+        assertEquals(callers - 1, doctorCache.loads().getCollapsedCount());
+    }
+
+    private static RoleRegistry roleRegistry(Keycloak keycloak) throws Exception {
+        RoleRegistry registry = new RoleRegistry(keycloak);
+        setField(registry, "realm", "journal");
+        return registry;
+    }
+
     private static void setField(Object target, String fieldName, Object value) throws Exception {
         Field f = target.getClass().getDeclaredField(fieldName);
         f.setAccessible(true);
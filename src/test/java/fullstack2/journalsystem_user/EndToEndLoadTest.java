@@ -0,0 +1,214 @@
+package fullstack2.journalsystem_user;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Primary;
+import org.springframework.security.oauth2.jwt.Jwt;
+import org.springframework.security.oauth2.jwt.JwtDecoder;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntFunction;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Boots the whole application against {@link KeycloakStub} and drives the REST endpoints with
+ * concurrent clients, reporting throughput, p50/p99 latency and Keycloak calls per request for
+ * each endpoint. Excluded from the regular build; run with {@code mvn -Pload-test test}.
+ * The load and the stub are tuned with system properties, e.g.
+ * {@code -Dload.requests=2000 -Dload.concurrency=64 -Dload.keycloak-latency-ms=50
+ * -Dload.keycloak-error-rate=0.01 -Dload.population=10000 -Dload.directory=true}.
+ */
+@Tag("load")
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+public class EndToEndLoadTest {
+
+    private static final Logger log = LoggerFactory.getLogger(EndToEndLoadTest.class);
+
+    private static final int REQUESTS = Integer.getInteger("load.requests", 300);
+    private static final int CONCURRENCY = Integer.getInteger("load.concurrency", 32);
+    private static final long KEYCLOAK_LATENCY_MS = Long.getLong("load.keycloak-latency-ms", 20);
+    private static final double KEYCLOAK_ERROR_RATE = Double.parseDouble(System.getProperty("load.keycloak-error-rate", "0"));
+    private static final int POPULATION = Integer.getInteger("load.population", 1000);
+    private static final boolean DIRECTORY = Boolean.parseBoolean(System.getProperty("load.directory", "false"));
+
+    private static final Path REPORT = Path.of("target", "load-test-report.txt");
+
+    private static KeycloakStub stub;
+
+    private record Scenario(String name, IntFunction<String> path, int range) {
+    }
+
+    private record Result(String name, int requests, int errors, double seconds, long[] latenciesNanos, long upstreamCalls) {
+        double percentileMs(double percentile) {
+            int index = (int) Math.ceil(percentile / 100.0 * latenciesNanos.length) - 1;
+            return latenciesNanos[Math.max(0, index)] / 1_000_000.0;
+        }
+    }
+
+    @LocalServerPort
+    private int port;
+
+    @DynamicPropertySource
+    static void keycloak(DynamicPropertyRegistry registry) throws Exception {
+        stub = new KeycloakStub("journal", KEYCLOAK_LATENCY_MS, POPULATION, KEYCLOAK_ERROR_RATE);
+        registry.add("KEYCLOAK_AUTH_SERVER_URL", stub::getServerUrl);
+        registry.add("KEYCLOAK_REALM", () -> "journal");
+        registry.add("KEYCLOAK_CLIENT_ID", () -> "user-mgmt-service");
+        registry.add("KEYCLOAK_CLIENT_SECRET", () -> "secret");
+        registry.add("journal.directory.enabled", () -> DIRECTORY);
+        registry.add("journal.keycloak.http.pool-size", () -> CONCURRENCY * 2);
+        registry.add("journal.keycloak.http.max-per-route", () -> CONCURRENCY * 2);
+    }
+
+    @AfterAll
+    static void stopStub() throws Exception {
+        stub.close();
+    }
+
+    // Every bearer token is accepted as patient0; token validation is not what is being measured
+    @TestConfiguration
+    static class AcceptAnyToken {
+        @Bean
+        @Primary
+        JwtDecoder jwtDecoder() {
+            return token -> Jwt.withTokenValue(token)
+                    .header("alg", "none")
+                    .subject("user-patient0")
+                    .claim("preferred_username", "patient0")
+                    .claim("email", "patient0@journal.test")
+                    .claim("realm_access", Map.of("roles", List.of("patient")))
+                    .issuedAt(Instant.now())
+                    .expiresAt(Instant.now().plusSeconds(3600))
+                    .build();
+        }
+    }
+
+    @Test
+    @DisplayName("endpoints under concurrent load against a Keycloak with latency")
+    void loadEndpoints() throws Exception {
+        int doctors = stub.getDoctorCount();
+        List<Scenario> scenarios = List.of(
+                new Scenario("GET /getUserByUserName", i -> "/getUserByUserName?username=patient" + i, POPULATION),
+                new Scenario("GET /login", i -> "/login?username=patient" + i + "&password=pw", POPULATION),
+                new Scenario("GET /api/patient/getByUserName", i -> "/api/patient/getByUserName/patient" + i, POPULATION),
+                new Scenario("GET /api/patient/getByPatientId", i -> "/api/patient/getByPatientId/user-patient" + i, POPULATION),
+                new Scenario("GET /api/patient/getPatientsByDoctorName", i -> "/api/patient/getPatientsByDoctorName/doctor" + i, doctors),
+                new Scenario("GET /api/doctor/getDoctorByUserName", i -> "/api/doctor/getDoctorByUserName/doctor" + i, doctors),
+                new Scenario("GET /api/doctor/getDoctorsByOrganizationName", i -> "/api/doctor/getDoctorsByOrganizationName/Org" + i,
+                        KeycloakStub.ORGANIZATIONS),
+                new Scenario("GET /api/employee/getEmployeesByOrganization", i -> "/api/employee/getEmployeesByOrganization/Org" + i,
+                        KeycloakStub.ORGANIZATIONS));
+
+        HttpClient client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(5))
+                .build();
+        List<Result> results = new ArrayList<>();
+        for (Scenario scenario : scenarios) {
+            results.add(run(client, scenario));
+        }
+        report(results);
+
+        for (Result result : results) {
+            if (KEYCLOAK_ERROR_RATE == 0) {
+                assertEquals(0, result.errors(), result.name() + " failed requests without injected Keycloak errors");
+            }
+        }
+    }
+
+    private Result run(HttpClient client, Scenario scenario) throws Exception {
+        long[] latencies = new long[REQUESTS];
+        AtomicInteger next = new AtomicInteger();
+        AtomicInteger errors = new AtomicInteger();
+
+        ExecutorService clients = Executors.newFixedThreadPool(CONCURRENCY);
+        long upstreamBefore = stub.getRequestCount();
+        long start = System.nanoTime();
+        try {
+            List<Future<?>> workers = new ArrayList<>();
+            for (int c = 0; c < CONCURRENCY; c++) {
+                workers.add(clients.submit(() -> {
+                    int n;
+                    while ((n = next.getAndIncrement()) < REQUESTS) {
+                        String path = scenario.path().apply(ThreadLocalRandom.current().nextInt(scenario.range()));
+                        HttpRequest request = HttpRequest.newBuilder(URI.create("http://127.0.0.1:" + port + path))
+                                .header("Authorization", "Bearer load-test")
+                                .timeout(Duration.ofSeconds(30))
+                                .GET()
+                                .build();
+                        long sent = System.nanoTime();
+                        try {
+                            HttpResponse<Void> response = client.send(request, HttpResponse.BodyHandlers.discarding());
+                            if (response.statusCode() >= 400) {
+                                errors.incrementAndGet();
+                            }
+                        } catch (Exception e) {
+                            errors.incrementAndGet();
+                        }
+                        latencies[n] = System.nanoTime() - sent;
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> worker : workers) {
+                worker.get(10, TimeUnit.MINUTES);
+            }
+        } finally {
+            clients.shutdownNow();
+        }
+        double seconds = (System.nanoTime() - start) / 1_000_000_000.0;
+        long upstream = stub.getRequestCount() - upstreamBefore;
+
+        Arrays.sort(latencies);
+        return new Result(scenario.name(), REQUESTS, errors.get(), seconds, latencies, upstream);
+    }
+
+    // Logged, and kept in target/ to compare runs
+    private static void report(List<Result> results) throws IOException {
+        StringBuilder table = new StringBuilder();
+        table.append(String.format("Load test: %d requests per endpoint, %d clients, Keycloak latency %d ms, error rate %.3f, "
+                        + "population %d, directory %s%n",
+                REQUESTS, CONCURRENCY, KEYCLOAK_LATENCY_MS, KEYCLOAK_ERROR_RATE, POPULATION, DIRECTORY ? "on" : "off"));
+        table.append(String.format("%-46s %10s %8s %10s %10s %14s%n", "endpoint", "req/s", "errors", "p50 ms", "p99 ms", "upstream/req"));
+        for (Result result : results) {
+            table.append(String.format("%-46s %10.1f %8d %10.1f %10.1f %14.2f%n",
+                    result.name(),
+                    result.requests() / result.seconds(),
+                    result.errors(),
+                    result.percentileMs(50),
+                    result.percentileMs(99),
+                    (double) result.upstreamCalls() / result.requests()));
+        }
+        log.info("\n{}", table);
+        Files.writeString(REPORT, table);
+    }
+}
@@ -0,0 +1,92 @@
+package fullstack2.journalsystem_user;
+
+import fullstack2.journalsystem_user.config.TimedKeycloakEngine;
+import fullstack2.journalsystem_user.service.FanOutExecutor;
+import fullstack2.journalsystem_user.service.KeycloakCircuitBreaker;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.ws.rs.client.Client;
+import org.apache.http.impl.client.HttpClients;
+import org.jboss.resteasy.client.jaxrs.internal.ResteasyClientBuilderImpl;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.keycloak.OAuth2Constants;
+import org.keycloak.admin.client.JacksonProvider;
+import org.keycloak.admin.client.Keycloak;
+import org.keycloak.admin.client.KeycloakBuilder;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class FanOutExecutorTest {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+    @Test
+    @DisplayName("a call that times out is interrupted and gives its slot to the next call")
+    void timedOutCallIsInterrupted() throws Exception {
+        FanOutExecutor fanOut = new FanOutExecutor(1, 100, false, registry);
+        try {
+            CompletableFuture<String> slow = fanOut.submit(() -> {
+                try {
+                    Thread.sleep(30_000);
+                    return "too late";
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("interrupted");
+                }
+            });
+            assertInstanceOf(TimeoutException.class, assertThrows(RuntimeException.class, () -> FanOutExecutor.await(slow)).getCause());
+
+            long start = System.nanoTime();
+            assertEquals("next", FanOutExecutor.await(fanOut.submit(() -> "next")));
+            assertTrue(Duration.ofNanos(System.nanoTime() - start).toMillis() < 2000, "the only worker was freed");
+            awaitIdle(fanOut);
+            assertEquals(1.0, registry.get("journal.fan-out.failures").tag("cause", "timeout").counter().count());
+        } finally {
+            fanOut.shutdown();
+        }
+    }
+
+    @Test
+    @DisplayName("a call that times out aborts the Keycloak request it is blocked in")
+    void timedOutCallAbortsKeycloakRequest() throws Exception {
+        try (KeycloakStub stub = new KeycloakStub("journal", 20_000, 10)) {
+            Client client = new ResteasyClientBuilderImpl()
+                    .httpEngine(new TimedKeycloakEngine(HttpClients.createDefault(), registry,
+                            new Duration[]{Duration.ofMillis(50)}, new KeycloakCircuitBreaker(50, 20, 10, 10000, 3, 32, 100)))
+                    .register(new JacksonProvider())
+                    .build();
+            Keycloak keycloak = KeycloakBuilder.builder()
+                    .serverUrl(stub.getServerUrl())
+                    .realm("journal")
+                    .grantType(OAuth2Constants.CLIENT_CREDENTIALS)
+                    .clientId("user-mgmt-service")
+                    .clientSecret("secret")
+                    .resteasyClient(client)
+                    .build();
+            FanOutExecutor fanOut = new FanOutExecutor(1, 200, false, registry);
+            try {
+                CompletableFuture<Integer> lookup = fanOut.submit(() -> keycloak.realm("journal").users().search("patient1").size());
+                assertThrows(RuntimeException.class, () -> FanOutExecutor.await(lookup));
+
+                // the socket read would block for the stub's full latency unless the request is aborted
+                awaitIdle(fanOut);
+            } finally {
+                fanOut.shutdown();
+                keycloak.close();
+            }
+        }
+    }
+
+    // A worker leaves the in-flight count just after completing its future, so allow it a moment
+    private static void awaitIdle(FanOutExecutor fanOut) throws InterruptedException {
+        long deadline = System.nanoTime() + Duration.ofSeconds(5).toNanos();
+        while (fanOut.getInFlight() > 0 && System.nanoTime() < deadline) {
+            Thread.sleep(20);
+        }
+        assertEquals(0, fanOut.getInFlight());
+    }
+}
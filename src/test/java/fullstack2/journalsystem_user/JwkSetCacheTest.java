@@ -0,0 +1,108 @@
+package fullstack2.journalsystem_user;
+
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jose.crypto.RSASSASigner;
+import com.nimbusds.jose.jwk.JWKSet;
+import com.nimbusds.jose.jwk.RSAKey;
+import com.nimbusds.jose.jwk.gen.RSAKeyGenerator;
+import com.nimbusds.jwt.JWTClaimsSet;
+import com.nimbusds.jwt.SignedJWT;
+import fullstack2.journalsystem_user.config.JwkSetCache;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.security.oauth2.jwt.JwtDecoder;
+import org.springframework.security.oauth2.jwt.JwtException;
+import org.springframework.security.oauth2.jwt.NimbusJwtDecoder;
+
+import java.util.Date;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class JwkSetCacheTest {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private KeycloakStub stub;
+    private RSAKey signingKey;
+
+    @BeforeEach
+    void setup() throws Exception {
+        stub = new KeycloakStub("journal", 0, 10);
+        signingKey = new RSAKeyGenerator(2048).keyID("k1").generate();
+        stub.setJwkSet(new JWKSet(signingKey.toPublicJWK()).toString());
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        stub.close();
+    }
+
+    @Test
+    @DisplayName("keys are loaded once up front and keep validating tokens through a Keycloak outage")
+    void servesCachedKeysDuringOutage() throws Exception {
+        JwkSetCache cache = cache(0);
+        JwtDecoder decoder = NimbusJwtDecoder.withJwkSource(cache).build();
+        long requestsAfterLoad = stub.getRequestCount();
+
+        for (int i = 0; i < 20; i++) {
+            assertEquals("patient1", decoder.decode(token(signingKey)).getSubject());
+        }
+        assertEquals(requestsAfterLoad, stub.getRequestCount());
+
+        stub.close();
+        cache.refresh();
+
+        assertEquals("patient1", decoder.decode(token(signingKey)).getSubject());
+        assertEquals(1, cache.size());
+        assertEquals(1, registry.get("journal.jwk.refresh").tag("outcome", "success").timer().count());
+        assertEquals(1, registry.get("journal.jwk.refresh").tag("outcome", "failure").timer().count());
+    }
+
+    @Test
+    @DisplayName("a token signed with a rotated-in key triggers a refresh")
+    void refreshesOnUnknownKey() throws Exception {
+        JwkSetCache cache = cache(0);
+        JwtDecoder decoder = NimbusJwtDecoder.withJwkSource(cache).build();
+
+        RSAKey rotated = new RSAKeyGenerator(2048).keyID("k2").generate();
+        stub.setJwkSet(new JWKSet(rotated.toPublicJWK()).toString());
+
+        assertEquals("patient1", decoder.decode(token(rotated)).getSubject());
+        assertEquals(2, registry.get("journal.jwk.refresh").tag("outcome", "success").timer().count());
+    }
+
+    @Test
+    @DisplayName("unknown key IDs cannot make the service hammer Keycloak")
+    void rateLimitsOnDemandRefreshes() throws Exception {
+        JwkSetCache cache = cache(60000);
+        JwtDecoder decoder = NimbusJwtDecoder.withJwkSource(cache).build();
+        RSAKey forged = new RSAKeyGenerator(2048).keyID("forged").generate();
+        long requestsAfterLoad = stub.getRequestCount();
+
+        for (int i = 0; i < 5; i++) {
+            assertThrows(JwtException.class, () -> decoder.decode(token(forged)));
+        }
+        assertEquals(requestsAfterLoad, stub.getRequestCount());
+    }
+
+    private JwkSetCache cache(long minRefreshIntervalMs) {
+        JwkSetCache cache = new JwkSetCache(stub.getJwkSetUrl(), minRefreshIntervalMs, 2000);
+        cache.bindTo(registry);
+        cache.refresh();
+        return cache;
+    }
+
+    private static String token(RSAKey key) throws Exception {
+        SignedJWT jwt = new SignedJWT(
+                new JWSHeader.Builder(JWSAlgorithm.RS256).keyID(key.getKeyID()).build(),
+                new JWTClaimsSet.Builder()
+                        .subject("patient1")
+                        .expirationTime(new Date(System.currentTimeMillis() + 60000))
+                        .build());
+        jwt.sign(new RSASSASigner(key));
+        return jwt.serialize();
+    }
+}
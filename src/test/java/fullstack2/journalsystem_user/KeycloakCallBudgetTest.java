@@ -0,0 +1,176 @@
+package fullstack2.journalsystem_user;
+
+import fullstack2.journalsystem_user.config.KeycloakCallBudgetFilter;
+import fullstack2.journalsystem_user.controller.NdjsonWriter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.context.annotation.Import;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Keycloak call budgets per endpoint, measured through the {@code X-Keycloak-Calls} header with
+ * cold caches and the user directory switched off, i.e. the worst case. Raising a budget here
+ * should be a deliberate decision; an unexpected failure usually means a new N+1 lookup.
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+@Import(EndToEndLoadTest.AcceptAnyToken.class)
+public class KeycloakCallBudgetTest {
+
+    private static final Logger log = LoggerFactory.getLogger(KeycloakCallBudgetTest.class);
+
+    private static KeycloakStub stub;
+
+    private record Budget(String method, String path, String body, String accept, int maxCalls) {
+        Budget(String method, String path, String body, int maxCalls) {
+            this(method, path, body, null, maxCalls);
+        }
+    }
+
+    // A doctor's panel is resolved patient by patient: a search and a read each
+    private static final int PANEL_LOOKUPS = 2 * KeycloakStub.PANEL_SIZE;
+
+    private static final List<Budget> BUDGETS = List.of(
+            new Budget("GET", "/me", null, 0),
+            new Budget("GET", "/getUserByUserName?username=patient1", null, 2),
+            new Budget("GET", "/getUserByUserName?username=nobody", null, 1),
+            new Budget("GET", "/login?username=patient2&password=pw", null, 1),
+            new Budget("POST", "/login", "{\"username\":\"doctor0\",\"password\":\"pw\"}", 1),
+            new Budget("GET", "/api/patient/getByUserName/patient3", null, 2),
+            new Budget("GET", "/api/patient/getByPatientId/user-patient4", null, 1),
+            new Budget("GET", "/api/patient/getPatientsByDoctorName/doctor1", null, 2 + PANEL_LOOKUPS),
+            new Budget("GET", "/api/doctor/getDoctorByUserName/doctor2", null, 3),
+            new Budget("GET", "/api/doctor/getDoctorByDoctorId/user-doctor3", null, 2),
+            new Budget("GET", "/api/doctor/getDoctorsByOrganizationName/Org1", null, 2),
+            new Budget("GET", "/api/doctor/getDoctorsByOrganizationName/Org3", null, NdjsonWriter.NDJSON, 2),
+            new Budget("GET", "/api/employee/getEmployeeByUserName/employee2", null, 3),
+            new Budget("GET", "/api/employee/getEmployeesByOrganization/Org2", null, 2),
+            new Budget("GET", "/api/employee/getEmployeesByOrganization/Org4", null, NdjsonWriter.NDJSON, 2),
+            new Budget("PUT", "/api/patient/addDoctor/patient5/doctor4", null, 3),
+            new Budget("POST", "/api/doctor/createDoctor",
+                    "{\"username\":\"doctor5\",\"email\":\"d@x\",\"password\":\"pw\",\"firstName\":\"A\",\"lastName\":\"B\","
+                            + "\"role\":\"doctor\",\"organizationName\":\"Org0\",\"organizationAddress\":\"Street\"}", 5));
+
+    @LocalServerPort
+    private int port;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private final HttpClient client = HttpClient.newHttpClient();
+
+    @DynamicPropertySource
+    static void keycloak(DynamicPropertyRegistry registry) throws Exception {
+        stub = new KeycloakStub("journal", 0, 100);
+        registry.add("KEYCLOAK_AUTH_SERVER_URL", stub::getServerUrl);
+        registry.add("KEYCLOAK_REALM", () -> "journal");
+        registry.add("KEYCLOAK_CLIENT_ID", () -> "user-mgmt-service");
+        registry.add("KEYCLOAK_CLIENT_SECRET", () -> "secret");
+        registry.add("journal.directory.enabled", () -> false);
+    }
+
+    @AfterAll
+    static void stopStub() throws Exception {
+        stub.close();
+    }
+
+    @BeforeEach
+    void warmUp() throws Exception {
+        // the admin client fetches its service-account token on first use; keep it out of the budgets
+        send("GET", "/getUserByUserName?username=patient0", null);
+    }
+
+    @Test
+    @DisplayName("no endpoint makes more Keycloak calls than its budget")
+    void endpointsStayWithinBudget() throws Exception {
+        List<String> overBudget = new ArrayList<>();
+        for (Budget budget : BUDGETS) {
+            HttpResponse<String> response = send(budget.method(), budget.path(), budget.body(), budget.accept());
+            assertEquals(200, response.statusCode(), budget.path());
+
+            int calls = Integer.parseInt(response.headers()
+                    .firstValue(KeycloakCallBudgetFilter.CALLS_HEADER)
+                    .orElseThrow(() -> new AssertionError("no call count on " + budget.path())));
+            log.debug("{} {}: {} Keycloak calls (budget {})", budget.method(), budget.path(), calls, budget.maxCalls());
+            if (calls > budget.maxCalls()) {
+                overBudget.add(budget.method() + " " + budget.path() + ": " + calls + " calls, budget " + budget.maxCalls());
+            }
+        }
+        assertTrue(overBudget.isEmpty(), "Keycloak call budget exceeded:\n" + String.join("\n", overBudget));
+    }
+
+    @Test
+    @DisplayName("calls made on fan-out threads are charged to the request and recorded per endpoint")
+    void fanOutCallsAreChargedToTheRequest() throws Exception {
+        HttpResponse<String> response = send("GET", "/api/patient/getPatientsByDoctorName/doctor6", null);
+
+        assertEquals(String.valueOf(2 + PANEL_LOOKUPS), response.headers().firstValue(KeycloakCallBudgetFilter.CALLS_HEADER).orElseThrow());
+        assertTrue(response.headers().firstValue(KeycloakCallBudgetFilter.TIME_HEADER).isPresent());
+
+        DistributionSummary perRequest = meterRegistry.find("journal.keycloak.calls.per.request")
+                .tags("method", "GET", "uri", "/api/patient/getPatientsByDoctorName/{doctorName}")
+                .summary();
+        assertNotNull(perRequest);
+        assertTrue(perRequest.max() >= 2 + PANEL_LOOKUPS);
+    }
+
+    @Test
+    @DisplayName("a streamed response reports the calls made before its first record")
+    void streamedResponseReportsCallsBeforeFirstRecord() throws Exception {
+        HttpResponse<String> response = send("GET", "/api/patient/getPatientsByDoctorName/doctor7", null, NdjsonWriter.NDJSON);
+
+        assertEquals(200, response.statusCode());
+        assertTrue(response.headers().firstValue("Content-Type").orElseThrow().startsWith(NdjsonWriter.NDJSON));
+        assertEquals(KeycloakStub.PANEL_SIZE, response.body().lines().count());
+        // the doctor lookup and at least the first patient's search and read
+        int calls = Integer.parseInt(response.headers().firstValue(KeycloakCallBudgetFilter.CALLS_HEADER).orElseThrow());
+        assertTrue(calls >= 4 && calls <= 2 + PANEL_LOOKUPS, "reported " + calls + " calls");
+    }
+
+    @Test
+    @DisplayName("a negative offset or limit is rejected as a bad request without calling Keycloak")
+    void negativePageIsBadRequest() throws Exception {
+        for (String accept : new String[]{null, NdjsonWriter.NDJSON}) {
+            assertEquals(400, send("GET", "/api/patient/getPatientsByDoctorName/doctor1?offset=-1", null, accept).statusCode());
+            HttpResponse<String> response = send("GET", "/api/doctor/getDoctorsByOrganizationName/org1?limit=-5", null, accept);
+            assertEquals(400, response.statusCode());
+            assertEquals("0", response.headers().firstValue(KeycloakCallBudgetFilter.CALLS_HEADER).orElse("0"));
+        }
+    }
+
+    private HttpResponse<String> send(String method, String path, String body) throws Exception {
+        return send(method, path, body, null);
+    }
+
+    private HttpResponse<String> send(String method, String path, String body, String accept) throws Exception {
+        HttpRequest.Builder request = HttpRequest.newBuilder(URI.create("http://127.0.0.1:" + port + path))
+                .header("Authorization", "Bearer budget-test");
+        if (accept != null) {
+            request.header("Accept", accept);
+        }
+        if (body != null) {
+            request.header("Content-Type", "application/json").method(method, HttpRequest.BodyPublishers.ofString(body));
+        } else {
+            request.method(method, HttpRequest.BodyPublishers.noBody());
+        }
+        return client.send(request.build(), HttpResponse.BodyHandlers.ofString());
+    }
+}
@@ -0,0 +1,132 @@
+package fullstack2.journalsystem_user;
+
+import fullstack2.journalsystem_user.service.KeycloakCallTally;
+import fullstack2.journalsystem_user.service.KeycloakCircuitBreaker;
+import fullstack2.journalsystem_user.service.KeycloakUnavailableException;
+import fullstack2.journalsystem_user.service.ProfileCache;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.ws.rs.ProcessingException;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class KeycloakCircuitBreakerTest {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+    @Test
+    @DisplayName("the breaker opens at the failure rate and rejects calls while open")
+    void opensOnFailureRate() {
+        KeycloakCircuitBreaker breaker = breaker(60000, 10);
+
+        call(breaker, true);
+        call(breaker, false);
+        call(breaker, true);
+        assertEquals(KeycloakCircuitBreaker.State.CLOSED, breaker.getState(), "below minimum calls");
+        call(breaker, false);
+
+        assertEquals(KeycloakCircuitBreaker.State.OPEN, breaker.getState());
+        assertThrows(KeycloakUnavailableException.class, breaker::acquire);
+        assertEquals(1.0, registry.get("journal.keycloak.breaker.rejected").tag("reason", "open").counter().count());
+        assertEquals(1.0, registry.get("journal.keycloak.breaker.transitions")
+                .tag("from", "CLOSED").tag("to", "OPEN").counter().count());
+        assertEquals(1.0, registry.get("journal.keycloak.breaker.state").tag("state", "OPEN").gauge().value());
+    }
+
+    @Test
+    @DisplayName("after the open period trial calls are let through and close the breaker again")
+    void halfOpenTrialsClose() {
+        KeycloakCircuitBreaker breaker = breaker(0, 10);
+        for (int i = 0; i < 4; i++) {
+            call(breaker, false);
+        }
+
+        breaker.acquire();
+        breaker.acquire();
+        assertEquals(KeycloakCircuitBreaker.State.HALF_OPEN, breaker.getState());
+        assertThrows(KeycloakUnavailableException.class, breaker::acquire, "only two trial calls at a time");
+        breaker.onComplete(true);
+        breaker.onComplete(true);
+
+        assertEquals(KeycloakCircuitBreaker.State.CLOSED, breaker.getState());
+        assertEquals(1.0, registry.get("journal.keycloak.breaker.transitions")
+                .tag("from", "HALF_OPEN").tag("to", "CLOSED").counter().count());
+    }
+
+    @Test
+    @DisplayName("a failed trial call opens the breaker again")
+    void failedTrialReopens() {
+        KeycloakCircuitBreaker breaker = breaker(0, 10);
+        for (int i = 0; i < 4; i++) {
+            call(breaker, false);
+        }
+
+        call(breaker, false);
+
+        assertEquals(KeycloakCircuitBreaker.State.OPEN, breaker.getState());
+        assertEquals(1.0, registry.get("journal.keycloak.breaker.transitions")
+                .tag("from", "HALF_OPEN").tag("to", "OPEN").counter().count());
+    }
+
+    @Test
+    @DisplayName("the bulkhead rejects calls beyond the concurrency limit")
+    void bulkheadRejectsWhenFull() {
+        KeycloakCircuitBreaker breaker = breaker(60000, 2);
+
+        breaker.acquire();
+        breaker.acquire();
+        assertEquals(2.0, registry.get("journal.keycloak.bulkhead.in-flight").gauge().value());
+        assertThrows(KeycloakUnavailableException.class, breaker::acquire);
+        assertEquals(1.0, registry.get("journal.keycloak.breaker.rejected").tag("reason", "bulkhead").counter().count());
+
+        breaker.onComplete(true);
+        breaker.acquire();
+        assertEquals(KeycloakCircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    @DisplayName("the last known profile is served, and the request marked stale, only when Keycloak is unavailable")
+    void servesLastKnownWhenUnavailable() {
+        // a zero TTL makes every lookup go to the loader
+        ProfileCache<String> cache = new ProfileCache<>("patients", 100, Duration.ZERO, Duration.ofHours(1), name -> name);
+        cache.bindTo(registry);
+        assertEquals("patient1", cache.getByUsername("patient1", Function.identity()));
+
+        try (KeycloakCallTally tally = KeycloakCallTally.open()) {
+            String served = cache.getByUsername("PATIENT1", name -> {
+                throw new ProcessingException(new KeycloakUnavailableException("Keycloak circuit breaker is OPEN"));
+            });
+            assertEquals("patient1", served);
+            assertTrue(tally.isStale());
+        }
+        assertEquals(1.0, registry.get("journal.stale.served").tag("cache", "patients").counter().count());
+
+        assertThrows(IllegalStateException.class, () -> cache.getByUsername("patient1", name -> {
+            throw new IllegalStateException("not a Keycloak outage");
+        }));
+        assertThrows(KeycloakUnavailableException.class, () -> cache.getByUsername("patient2", name -> {
+            throw new KeycloakUnavailableException("nothing remembered");
+        }));
+
+        cache.invalidate(null, "patient1");
+        assertThrows(KeycloakUnavailableException.class, () -> cache.getByUsername("patient1", name -> {
+            throw new KeycloakUnavailableException("forgotten on invalidation");
+        }));
+    }
+
+    // 50% over a window of 4, opening after 4 calls; two trial calls when half-open
+    private KeycloakCircuitBreaker breaker(long openMs, int maxConcurrent) {
+        KeycloakCircuitBreaker breaker = new KeycloakCircuitBreaker(50, 4, 4, openMs, 2, maxConcurrent, 0);
+        breaker.bindTo(registry);
+        return breaker;
+    }
+
+    private static void call(KeycloakCircuitBreaker breaker, boolean success) {
+        breaker.acquire();
+        breaker.onComplete(success);
+    }
+}
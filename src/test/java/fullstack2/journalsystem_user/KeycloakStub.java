@@ -0,0 +1,294 @@
+package fullstack2.journalsystem_user;
+
+import jakarta.servlet.http.HttpServlet;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.apache.catalina.Context;
+import org.apache.catalina.LifecycleException;
+import org.apache.catalina.LifecycleState;
+import org.apache.catalina.connector.Connector;
+import org.apache.catalina.startup.Tomcat;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.StringJoiner;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Minimal in-process stand-in for the Keycloak token and admin endpoints used by the services.
+ * Every request sleeps for the configured latency before answering, and fails with 503 at the
+ * configured error rate. The realm holds {@code users} patients, named patient0..patientN-1, plus
+ * one doctor per {@value #PANEL_SIZE} patients with those patients on its panel, and as many
+ * employees. Doctors and employees are spread over {@value #ORGANIZATIONS} organizations, Org0..Org4.
+ */
+public class KeycloakStub implements AutoCloseable {
+
+    static final int PANEL_SIZE = 10;
+    static final int ORGANIZATIONS = 5;
+    private static final Pattern USERNAME = Pattern.compile("\"username\"\\s*:\\s*\"([^\"]+)\"");
+
+    private record Person(String kind, int index) {
+        String username() {
+            return kind + index;
+        }
+
+        String id() {
+            return "user-" + username();
+        }
+    }
+
+    private final Tomcat tomcat;
+    private final String realm;
+    private final long latencyMs;
+    private final double errorRate;
+    private final int patients;
+    private final int doctors;
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+    private volatile String jwkSet = "{\"keys\":[]}";
+
+    public KeycloakStub(String realm, long latencyMs, int users) throws IOException, LifecycleException {
+        this(realm, latencyMs, users, 0.0);
+    }
+
+    public KeycloakStub(String realm, long latencyMs, int users, double errorRate) throws IOException, LifecycleException {
+        this.realm = realm;
+        this.latencyMs = latencyMs;
+        this.errorRate = errorRate;
+        this.patients = users;
+        this.doctors = (users + PANEL_SIZE - 1) / PANEL_SIZE;
+
+        File baseDir = Files.createTempDirectory("keycloak-stub").toFile();
+        tomcat = new Tomcat();
+        tomcat.setBaseDir(baseDir.getAbsolutePath());
+
+        // enough worker threads that the injected latency, not the stub, bounds throughput
+        Connector connector = new Connector();
+        connector.setPort(0);
+        connector.setProperty("address", "127.0.0.1");
+        connector.setProperty("maxThreads", "2000");
+        connector.setProperty("maxConnections", "10000");
+        connector.setProperty("maxKeepAliveRequests", "-1");
+        connector.setProperty("acceptCount", "4096");
+        tomcat.setConnector(connector);
+
+        Context context = tomcat.addContext("", baseDir.getAbsolutePath());
+        Tomcat.addServlet(context, "keycloak", new HttpServlet() {
+            @Override
+            protected void service(HttpServletRequest request, HttpServletResponse response) throws IOException {
+                handle(request, response);
+            }
+        });
+        context.addServletMappingDecoded("/*", "keycloak");
+        tomcat.start();
+    }
+
+    public String getServerUrl() {
+        return "http://127.0.0.1:" + tomcat.getConnector().getLocalPort();
+    }
+
+    public long getRequestCount() {
+        return requests.get();
+    }
+
+    public long getErrorCount() {
+        return errors.get();
+    }
+
+    public int getDoctorCount() {
+        return doctors;
+    }
+
+    public String getJwkSetUrl() {
+        return getServerUrl() + "/realms/" + realm + "/protocol/openid-connect/certs";
+    }
+
+    // The realm's published signing keys, as JWK set JSON
+    public void setJwkSet(String jwkSet) {
+        this.jwkSet = jwkSet;
+    }
+
+    // Idempotent, so a test can take Keycloak down and still close the stub afterwards
+    @Override
+    public synchronized void close() throws LifecycleException {
+        if (tomcat.getServer().getState() == LifecycleState.DESTROYED) {
+            return;
+        }
+        tomcat.stop();
+        tomcat.destroy();
+    }
+
+    private void handle(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        requests.incrementAndGet();
+        try {
+            Thread.sleep(latencyMs);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (errorRate > 0 && ThreadLocalRandom.current().nextDouble() < errorRate) {
+            errors.incrementAndGet();
+            respond(response, 503, "{\"error\":\"injected\"}");
+            return;
+        }
+
+        String path = request.getRequestURI();
+        String adminUsers = "/admin/realms/" + realm + "/users";
+        String adminRoles = "/admin/realms/" + realm + "/roles/";
+
+        if (path.equals("/realms/" + realm + "/protocol/openid-connect/token") && "password".equals(request.getParameter("grant_type"))) {
+            Person person = find(request.getParameter("username"));
+            if (person == null) {
+                respond(response, 401, "{\"error\":\"invalid_grant\"}");
+            } else {
+                respond(response, 200, "{\"access_token\":\"" + accessToken(person) + "\",\"expires_in\":300,\"token_type\":\"Bearer\"}");
+            }
+        } else if (path.equals("/realms/" + realm + "/protocol/openid-connect/token")) {
+            respond(response, 200, "{\"access_token\":\"stub-token\",\"expires_in\":3600,\"token_type\":\"Bearer\"}");
+        } else if (path.equals("/realms/" + realm + "/protocol/openid-connect/certs")) {
+            respond(response, 200, jwkSet);
+        } else if (path.equals(adminUsers) && "POST".equals(request.getMethod())) {
+            // creation is accepted but not stored; the new user is the existing one with that username
+            Matcher username = USERNAME.matcher(new String(request.getInputStream().readAllBytes(), StandardCharsets.UTF_8));
+            response.setHeader("Location", getServerUrl() + adminUsers + "/user-" + (username.find() ? username.group(1) : "new"));
+            respond(response, 201, "");
+        } else if (path.equals(adminUsers) && request.getParameter("username") != null) {
+            Person person = find(request.getParameter("username"));
+            respond(response, 200, person == null ? "[]" : "[" + userJson(person) + "]");
+        } else if (path.equals(adminUsers) && request.getParameter("q") != null) {
+            String query = request.getParameter("q");
+            String organization = query.startsWith("organizationName:") ? query.substring("organizationName:".length()) : null;
+            List<Person> members = new ArrayList<>();
+            for (Person person : everyone()) {
+                if (!person.kind().equals("patient") && organizationOf(person).equals(organization)) {
+                    members.add(person);
+                }
+            }
+            respond(response, 200, page(members, request));
+        } else if (path.equals(adminUsers)) {
+            respond(response, 200, page(everyone(), request));
+        } else if (path.startsWith(adminUsers + "/") && path.endsWith("/role-mappings/realm")) {
+            Person person = findById(path.substring(adminUsers.length() + 1, path.length() - "/role-mappings/realm".length()));
+            if ("POST".equals(request.getMethod())) {
+                respond(response, person == null ? 404 : 204, "");
+            } else {
+                respond(response, 200, person == null ? "[]" : "[" + roleJson(person.kind()) + "]");
+            }
+        } else if (path.startsWith(adminUsers + "/")) {
+            Person person = findById(path.substring(adminUsers.length() + 1));
+            if ("PUT".equals(request.getMethod())) {
+                respond(response, person == null ? 404 : 204, "");
+            } else {
+                respond(response, person == null ? 404 : 200, person == null ? "{}" : userJson(person));
+            }
+        } else if (path.startsWith(adminRoles) && path.endsWith("/users")) {
+            String roleName = path.substring(adminRoles.length(), path.length() - "/users".length());
+            List<Person> members = new ArrayList<>();
+            for (Person person : everyone()) {
+                if (person.kind().equals(roleName)) {
+                    members.add(person);
+                }
+            }
+            respond(response, 200, page(members, request));
+        } else if (path.startsWith(adminRoles)) {
+            respond(response, 200, roleJson(path.substring(adminRoles.length())));
+        } else {
+            respond(response, 404, "{}");
+        }
+    }
+
+    private List<Person> everyone() {
+        List<Person> people = new ArrayList<>(patients + 2 * doctors);
+        for (int i = 0; i < patients; i++) {
+            people.add(new Person("patient", i));
+        }
+        for (int i = 0; i < doctors; i++) {
+            people.add(new Person("doctor", i));
+            people.add(new Person("employee", i));
+        }
+        return people;
+    }
+
+    private Person find(String username) {
+        for (String kind : List.of("patient", "doctor", "employee")) {
+            if (username != null && username.startsWith(kind)) {
+                try {
+                    int index = Integer.parseInt(username.substring(kind.length()));
+                    int size = kind.equals("patient") ? patients : doctors;
+                    return index >= 0 && index < size ? new Person(kind, index) : null;
+                } catch (NumberFormatException e) {
+                    return null;
+                }
+            }
+        }
+        return null;
+    }
+
+    private Person findById(String id) {
+        return id.startsWith("user-") ? find(id.substring("user-".length())) : null;
+    }
+
+    private static String organizationOf(Person person) {
+        return "Org" + (person.index() % ORGANIZATIONS);
+    }
+
+    private String page(List<Person> people, HttpServletRequest request) {
+        int first = request.getParameter("first") != null ? Integer.parseInt(request.getParameter("first")) : 0;
+        int max = request.getParameter("max") != null ? Integer.parseInt(request.getParameter("max")) : 100;
+        StringJoiner json = new StringJoiner(",", "[", "]");
+        for (int i = first; i < Math.min(people.size(), first + max); i++) {
+            json.add(userJson(people.get(i)));
+        }
+        return json.toString();
+    }
+
+    private String userJson(Person person) {
+        String attributes;
+        if (person.kind().equals("patient")) {
+            attributes = "\"age\":[\"40\"],\"gender\":[\"female\"],\"telephoneNr\":[\"070\"],"
+                    + "\"address\":[\"Street " + person.index() + "\"]";
+        } else {
+            attributes = "\"organizationName\":[\"" + organizationOf(person) + "\"],\"organizationAddress\":[\"Street 1\"]";
+            if (person.kind().equals("doctor")) {
+                StringJoiner panel = new StringJoiner(",", "[", "]");
+                for (int i = person.index() * PANEL_SIZE; i < Math.min(patients, (person.index() + 1) * PANEL_SIZE); i++) {
+                    panel.add("\"patient" + i + "\"");
+                }
+                attributes += ",\"patients\":" + panel;
+            }
+        }
+        return "{\"id\":\"" + person.id() + "\",\"username\":\"" + person.username() + "\","
+                + "\"email\":\"" + person.username() + "@journal.test\",\"firstName\":\"First\",\"lastName\":\"" + person.index() + "\","
+                + "\"enabled\":true,\"attributes\":{" + attributes + "}}";
+    }
+
+    // Unsigned, but with the claims Keycloak puts in a user's access token
+    private static String accessToken(Person person) {
+        long now = System.currentTimeMillis() / 1000;
+        String claims = "{\"sub\":\"" + person.id() + "\",\"preferred_username\":\"" + person.username() + "\","
+                + "\"email\":\"" + person.username() + "@journal.test\",\"iat\":" + now + ",\"exp\":" + (now + 300) + ","
+                + "\"realm_access\":{\"roles\":[\"offline_access\",\"" + person.kind() + "\"]}}";
+        Base64.Encoder base64 = Base64.getUrlEncoder().withoutPadding();
+        return base64.encodeToString("{\"alg\":\"none\"}".getBytes(StandardCharsets.UTF_8)) + "."
+                + base64.encodeToString(claims.getBytes(StandardCharsets.UTF_8)) + ".";
+    }
+
+    private static String roleJson(String roleName) {
+        return "{\"id\":\"role-" + roleName + "\",\"name\":\"" + roleName + "\"}";
+    }
+
+    private static void respond(HttpServletResponse response, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        response.setStatus(status);
+        response.setContentType("application/json");
+        response.setContentLength(bytes.length);
+        response.getOutputStream().write(bytes);
+    }
+}
@@ -0,0 +1,118 @@
+package fullstack2.journalsystem_user;
+
+import fullstack2.journalsystem_user.service.NegativeCache;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class NegativeCacheTest {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+    @Test
+    @DisplayName("recorded usernames and IDs are reported unknown, usernames case-insensitively")
+    void recordAndLookup() {
+        NegativeCache cache = cache(30, 1000);
+
+        cache.recordUnknownUsername("Ghost");
+        cache.recordUnknownId("id-1");
+
+        assertTrue(cache.isUnknownUsername("ghost"));
+        assertTrue(cache.isUnknownId("id-1"));
+        assertFalse(cache.isUnknownId("ghost"), "usernames and IDs are kept apart");
+        assertFalse(cache.isUnknownUsername("patient1"));
+        assertFalse(cache.isUnknownUsername(null));
+        assertEquals(2.0, registry.get("journal.negative-cache.short-circuited").counter().count());
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    @DisplayName("a registered name and ID are no longer reported unknown, until they miss again")
+    void forgetOnRegistration() {
+        NegativeCache cache = cache(30, 1000);
+        cache.recordUnknownUsername("ghost");
+        cache.recordUnknownId("id-1");
+
+        cache.forget("id-1", "GHOST");
+
+        assertFalse(cache.isUnknownUsername("ghost"));
+        assertFalse(cache.isUnknownId("id-1"));
+
+        cache.recordUnknownUsername("ghost");
+        assertTrue(cache.isUnknownUsername("ghost"));
+    }
+
+    @Test
+    @DisplayName("a miss survives one rotation of the filter and is dropped by the next")
+    void generationRotation() {
+        // a zero TTL rotates on every call
+        NegativeCache cache = cache(0, 1000);
+        cache.recordUnknownUsername("ghost");
+
+        assertTrue(cache.isUnknownUsername("ghost"), "held by the previous generation");
+        assertFalse(cache.isUnknownUsername("ghost"));
+    }
+
+    @Test
+    @DisplayName("a full generation is rotated before its TTL is up")
+    void fullGenerationRotates() {
+        NegativeCache cache = cache(3600, 100);
+        record(cache, "first", 100);
+        record(cache, "second", 1);
+        assertTrue(cache.isUnknownUsername("first0"));
+
+        record(cache, "third", 100);
+
+        assertFalse(cache.isUnknownUsername("first0"));
+        assertTrue(cache.isUnknownUsername("second0"));
+        assertTrue(cache.isUnknownUsername("third99"));
+    }
+
+    @Test
+    @DisplayName("a name the filter has never seen is answered without touching the exact set")
+    void filterAnswersAbsent() {
+        NegativeCache cache = cache(30, 1000);
+
+        assertFalse(cache.isUnknownUsername("patient1"));
+        assertFalse(cache.isUnknownId("id-1"));
+
+        assertEquals(2.0, registry.get("journal.negative-cache.bloom-skipped").counter().count());
+        assertEquals(0.0, gets("hit") + gets("miss"));
+
+        cache.recordUnknownUsername("ghost");
+        assertTrue(cache.isUnknownUsername("ghost"));
+        assertEquals(1.0, gets("miss"), "a filter hit is checked against the registrations");
+    }
+
+    @Test
+    @DisplayName("registering a name that never missed leaves the exact set empty")
+    void forgetSkipsNamesTheFilterNeverSaw() {
+        NegativeCache cache = cache(30, 10);
+        for (int i = 0; i < 100; i++) {
+            cache.forget("id-" + i, "patient" + i);
+        }
+        cache.recordUnknownUsername("ghost");
+
+        assertTrue(cache.isUnknownUsername("ghost"));
+        assertEquals(0.0, registry.get("journal.negative-cache.cleared").counter().count());
+    }
+
+    private NegativeCache cache(long ttlSeconds, long maximumSize) {
+        NegativeCache cache = new NegativeCache(ttlSeconds, maximumSize);
+        cache.bindTo(registry);
+        return cache;
+    }
+
+    private static void record(NegativeCache cache, String prefix, int count) {
+        for (int i = 0; i < count; i++) {
+            cache.recordUnknownUsername(prefix + i);
+        }
+    }
+
+    private double gets(String result) {
+        return registry.get("cache.gets").tag("cache", "negativeLookupsForgotten").tag("result", result)
+                .functionCounter().count();
+    }
+}
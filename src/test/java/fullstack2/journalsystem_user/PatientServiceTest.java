@@ -1,7 +1,17 @@
 package fullstack2.journalsystem_user;
 
 import fullstack2.journalsystem_user.Models.CreatePatientModel;
+import fullstack2.journalsystem_user.Models.CreateDoctorModel;
+import fullstack2.journalsystem_user.Models.PatientAssignmentModel;
+import fullstack2.journalsystem_user.Models.PatientAssignmentResult;
+import fullstack2.journalsystem_user.service.RoleRegistry;
+import fullstack2.journalsystem_user.service.UserDirectory;
+import fullstack2.journalsystem_user.service.FanOutExecutor;
+import fullstack2.journalsystem_user.service.NegativeCache;
+import fullstack2.journalsystem_user.service.Page;
 import fullstack2.journalsystem_user.service.PatientService;
+import fullstack2.journalsystem_user.service.ProfileCache;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import jakarta.ws.rs.core.Response;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
@@ -13,7 +23,13 @@ import org.keycloak.representations.idm.UserRepresentation;
 
 import java.lang.reflect.Field;
 import java.net.URI;
+import java.time.Duration;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.Mockito.*;
@@ -22,6 +38,7 @@ public class PatientServiceTest {
 
     private Keycloak keycloak;
     private PatientService service;
+    private NegativeCache negativeCache;
 
     private RealmResource realm;
     private UsersResource users;
@@ -30,7 +47,12 @@ public class PatientServiceTest {
     @BeforeEach
     void setup() throws Exception {
         keycloak = mock(Keycloak.class);
-        service = new PatientService(keycloak);
+        negativeCache = new NegativeCache(30, 1000);
+        service = new PatientService(keycloak, roleRegistry(keycloak),
+                new ProfileCache<>("patientProfiles", 100, Duration.ofMinutes(5), CreatePatientModel::getUsername),
+                new ProfileCache<>("doctorProfiles", 100, Duration.ofMinutes(5), CreateDoctorModel::getUsername),
+                new FanOutExecutor(4, 5000, false, new SimpleMeterRegistry()),
+                new UserDirectory(keycloak, roleRegistry(keycloak), false, 120000), negativeCache);
         setField(service, "realm", "journal");
         setField(service, "serverUrl", "http://keycloak:8080");
         setField(service, "clientId", "user-mgmt-service");
@@ -122,7 +144,266 @@ public class PatientServiceTest {
         verify(docRes, times(1)).update(any()); // still only once
     }
 
+    @Test
+    @DisplayName("addPatient loses no assignments when many run against the same doctor at once")
+    void addPatient_concurrentAssignmentsAreNotLost() throws Exception {
+        UserRepresentation doctorBrief = new UserRepresentation();
+        doctorBrief.setId("kc-doc");
+        when(users.searchByUsername("doc", true)).thenReturn(List.of(doctorBrief));
+
+        // Keycloak keeps whatever the last update wrote; reads are slow enough for writers to interleave
+        AtomicReference<List<String>> stored = new AtomicReference<>(List.of());
+        UserResource docRes = mock(UserResource.class);
+        when(users.get("kc-doc")).thenReturn(docRes);
+        when(docRes.toRepresentation()).thenAnswer(invocation -> {
+            UserRepresentation rep = new UserRepresentation();
+            rep.setId("kc-doc");
+            rep.setAttributes(Map.of("patients", stored.get()));
+            Thread.sleep(1);
+            return rep;
+        });
+        doAnswer(invocation -> {
+            UserRepresentation rep = invocation.getArgument(0);
+            stored.set(List.copyOf(rep.getAttributes().get("patients")));
+            return null;
+        }).when(docRes).update(any(UserRepresentation.class));
+
+        int assignments = 200;
+        ExecutorService pool = Executors.newFixedThreadPool(32);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < assignments; i++) {
+                String patient = "pat" + i;
+                futures.add(pool.submit(() -> service.addPatient(patient, "doc")));
+            }
+            for (Future<?> future : futures) {
+                future.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+
+        assertEquals(assignments, new HashSet<>(stored.get()).size());
+        verify(docRes, times(assignments)).update(any(UserRepresentation.class));
+    }
+
+    @Test
+    @DisplayName("addPatients writes each doctor once and reports every pair in request order")
+    void addPatients_coalescesPerDoctor() {
+        Map<String, UserResource> doctors = new HashMap<>();
+        for (String name : List.of("doc", "doc2")) {
+            UserRepresentation brief = new UserRepresentation();
+            brief.setId("kc-" + name);
+            when(users.searchByUsername(name, true)).thenReturn(List.of(brief));
+
+            UserRepresentation full = new UserRepresentation();
+            full.setId("kc-" + name);
+            full.setAttributes(new HashMap<>(Map.of("patients", List.of("old"))));
+            UserResource res = mock(UserResource.class);
+            when(res.toRepresentation()).thenReturn(full);
+            when(users.get("kc-" + name)).thenReturn(res);
+            doctors.put(name, res);
+        }
+        when(users.searchByUsername("nobody", true)).thenReturn(List.of());
+
+        List<PatientAssignmentResult> results = service.addPatients(List.of(
+                new PatientAssignmentModel("pat1", "doc"),
+                new PatientAssignmentModel("pat2", "doc2"),
+                new PatientAssignmentModel("old", "doc"),
+                new PatientAssignmentModel("pat3", "nobody"),
+                new PatientAssignmentModel("pat2", "doc"),
+                new PatientAssignmentModel("pat1", "doc"),
+                new PatientAssignmentModel(null, "doc")));
+
+        assertEquals(List.of(
+                PatientAssignmentResult.Status.ASSIGNED,
+                PatientAssignmentResult.Status.ASSIGNED,
+                PatientAssignmentResult.Status.ALREADY_ASSIGNED,
+                PatientAssignmentResult.Status.FAILED,
+                PatientAssignmentResult.Status.ASSIGNED,
+                PatientAssignmentResult.Status.ALREADY_ASSIGNED,
+                PatientAssignmentResult.Status.FAILED
+        ), results.stream().map(PatientAssignmentResult::getStatus).toList());
+        assertEquals("Doctor not found: nobody", results.get(3).getMessage());
+
+        verify(doctors.get("doc"), times(1)).update(argThat(updated ->
+                updated.getAttributes().get("patients").equals(List.of("old", "pat1", "pat2"))));
+        verify(doctors.get("doc2"), times(1)).update(any(UserRepresentation.class));
+        verify(users, times(1)).searchByUsername("doc", true);
+    }
+
+    @Test
+    @DisplayName("getPatientsByDoctor keeps panel order and skips missing or failing patients")
+    void getPatientsByDoctor_skipsMissing() {
+        UserRepresentation doctorBrief = new UserRepresentation();
+        doctorBrief.setId("kc-doc");
+        when(users.searchByUsername("doc", true)).thenReturn(List.of(doctorBrief));
+
+        UserResource docRes = mock(UserResource.class);
+        when(users.get("kc-doc")).thenReturn(docRes);
+        UserRepresentation docFull = new UserRepresentation();
+        docFull.setId("kc-doc");
+        docFull.setAttributes(Map.of("patients", List.of("pat1", "ghost", "broken", "pat2")));
+        when(docRes.toRepresentation()).thenReturn(docFull);
+
+        when(users.searchByUsername("ghost", true)).thenReturn(List.of());
+        when(users.searchByUsername("broken", true)).thenThrow(new RuntimeException("boom"));
+        for (String name : List.of("pat1", "pat2")) {
+            UserRepresentation brief = new UserRepresentation();
+            brief.setId("kc-" + name);
+            when(users.searchByUsername(name, true)).thenReturn(List.of(brief));
+
+            UserRepresentation full = new UserRepresentation();
+            full.setId("kc-" + name);
+            full.setUsername(name);
+            UserResource res = mock(UserResource.class);
+            when(res.toRepresentation()).thenReturn(full);
+            when(users.get("kc-" + name)).thenReturn(res);
+        }
+
+        List<CreatePatientModel> result = service.getPatientsByDoctor("doc");
+
+        assertEquals(List.of("pat1", "pat2"), result.stream().map(CreatePatientModel::getUsername).toList());
+    }
+
+    @Test
+    @DisplayName("stale names in a doctor's panel and unknown usernames are looked up only once")
+    void negativeLookupsAreRemembered() {
+        UserRepresentation doctorBrief = new UserRepresentation();
+        doctorBrief.setId("kc-doc");
+        when(users.searchByUsername("doc", true)).thenReturn(List.of(doctorBrief));
+        UserResource docRes = mock(UserResource.class);
+        when(users.get("kc-doc")).thenReturn(docRes);
+        UserRepresentation docFull = new UserRepresentation();
+        docFull.setId("kc-doc");
+        docFull.setAttributes(Map.of("patients", List.of("ghost")));
+        when(docRes.toRepresentation()).thenReturn(docFull);
+        when(users.searchByUsername("ghost", true)).thenReturn(List.of());
+
+        assertTrue(service.getPatientsByDoctor("doc").isEmpty());
+        assertTrue(service.getPatientsByDoctor("doc").isEmpty());
+        RuntimeException e = assertThrows(RuntimeException.class, () -> service.getPatientByUsername("ghost"));
+
+        assertEquals("Patient not found with username: ghost", e.getMessage());
+        verify(users, times(1)).searchByUsername("ghost", true);
+    }
+
+    @Test
+    @DisplayName("getPatientsByDoctor is answered from a synced directory without Keycloak lookups")
+    void getPatientsByDoctor_servedFromDirectory() throws Exception {
+        for (String roleName : List.of("doctor", "patient", "employee")) {
+            RoleResource role = mock(RoleResource.class);
+            when(roles.get(roleName)).thenReturn(role);
+            UserRepresentation member = new UserRepresentation();
+            member.setId(roleName.equals("doctor") ? "kc-doc" : "kc-pat1");
+            when(role.getUserMembers(true, 0, 100)).thenReturn(roleName.equals("employee") ? List.of() : List.of(member));
+        }
+
+        UserRepresentation doctor = new UserRepresentation();
+        doctor.setId("kc-doc");
+        doctor.setUsername("doc");
+        doctor.setAttributes(Map.of("patients", List.of("pat1")));
+        UserRepresentation patient = new UserRepresentation();
+        patient.setId("kc-pat1");
+        patient.setUsername("pat1");
+        patient.setAttributes(Map.of("age", List.of("40")));
+        when(users.search(null, 0, 100, false)).thenReturn(List.of(doctor, patient));
+
+        RoleRegistry registry = roleRegistry(keycloak);
+        UserDirectory directory = new UserDirectory(keycloak, registry, true, 120000);
+        setField(directory, "realm", "journal");
+        directory.sync();
+
+        service = new PatientService(keycloak, registry,
+                new ProfileCache<>("patientProfiles", 100, Duration.ofMinutes(5), CreatePatientModel::getUsername),
+                new ProfileCache<>("doctorProfiles", 100, Duration.ofMinutes(5), CreateDoctorModel::getUsername),
+                new FanOutExecutor(4, 5000, false, new SimpleMeterRegistry()),
+                directory, new NegativeCache(30, 1000));
+        setField(service, "realm", "journal");
+
+        List<CreatePatientModel> result = service.getPatientsByDoctor("doc");
+
+        assertEquals(1, result.size());
+        assertEquals(40, result.get(0).getAge());
+        verify(users, never()).searchByUsername(anyString(), anyBoolean());
+        verify(users, never()).get(anyString());
+    }
+
+    @Test
+    @DisplayName("addPatients reports a doctor whose update did not finish in time as unknown")
+    void addPatients_unfinishedDoctorIsUnknown() throws Exception {
+        service = new PatientService(keycloak, roleRegistry(keycloak),
+                new ProfileCache<>("patientProfiles", 100, Duration.ofMinutes(5), CreatePatientModel::getUsername),
+                new ProfileCache<>("doctorProfiles", 100, Duration.ofMinutes(5), CreateDoctorModel::getUsername),
+                new FanOutExecutor(4, 200, false, new SimpleMeterRegistry()),
+                new UserDirectory(keycloak, roleRegistry(keycloak), false, 120000), negativeCache);
+        setField(service, "realm", "journal");
+
+        UserRepresentation brief = new UserRepresentation();
+        brief.setId("kc-doc");
+        when(users.searchByUsername("doc", true)).thenReturn(List.of(brief));
+        UserRepresentation full = new UserRepresentation();
+        full.setId("kc-doc");
+        full.setAttributes(new HashMap<>());
+        UserResource docRes = mock(UserResource.class);
+        when(docRes.toRepresentation()).thenReturn(full);
+        when(users.get("kc-doc")).thenReturn(docRes);
+        when(users.searchByUsername("slow", true)).thenAnswer(invocation -> {
+            Thread.sleep(5000);
+            return List.of();
+        });
+
+        List<PatientAssignmentResult> results = service.addPatients(List.of(
+                new PatientAssignmentModel("pat1", "doc"),
+                new PatientAssignmentModel("pat2", "slow")));
+
+        assertEquals(List.of(PatientAssignmentResult.Status.ASSIGNED, PatientAssignmentResult.Status.UNKNOWN),
+                results.stream().map(PatientAssignmentResult::getStatus).toList());
+        assertEquals("pat2", results.get(1).getPatientName());
+    }
+
+    @Test
+    @DisplayName("streamPatientsByDoctor resolves only the requested page of the panel, in order")
+    void streamPatientsByDoctor_resolvesOnlyPage() {
+        UserRepresentation doctorBrief = new UserRepresentation();
+        doctorBrief.setId("kc-doc");
+        when(users.searchByUsername("doc", true)).thenReturn(List.of(doctorBrief));
+
+        UserResource docRes = mock(UserResource.class);
+        when(users.get("kc-doc")).thenReturn(docRes);
+        UserRepresentation docFull = new UserRepresentation();
+        docFull.setId("kc-doc");
+        docFull.setAttributes(Map.of("patients", List.of("pat1", "pat2", "pat3", "pat4")));
+        when(docRes.toRepresentation()).thenReturn(docFull);
+
+        for (String name : List.of("pat1", "pat2", "pat3", "pat4")) {
+            UserRepresentation brief = new UserRepresentation();
+            brief.setId("kc-" + name);
+            when(users.searchByUsername(name, true)).thenReturn(List.of(brief));
+
+            UserRepresentation full = new UserRepresentation();
+            full.setId("kc-" + name);
+            full.setUsername(name);
+            UserResource res = mock(UserResource.class);
+            when(res.toRepresentation()).thenReturn(full);
+            when(users.get("kc-" + name)).thenReturn(res);
+        }
+
+        List<String> streamed = new ArrayList<>();
+        service.streamPatientsByDoctor("doc", new Page(1, 2), patient -> streamed.add(patient.getUsername()));
+
+        assertEquals(List.of("pat2", "pat3"), streamed);
+        verify(users, never()).searchByUsername("pat1", true);
+        verify(users, never()).searchByUsername("pat4", true);
+    }
+
     // helper
+    private static RoleRegistry roleRegistry(Keycloak keycloak) throws Exception {
+        RoleRegistry registry = new RoleRegistry(keycloak);
+        setField(registry, "realm", "journal");
+        return registry;
+    }
+
     private static void setField(Object target, String fieldName, Object value) throws Exception {
         Field f = target.getClass().getDeclaredField(fieldName);
         f.setAccessible(true);
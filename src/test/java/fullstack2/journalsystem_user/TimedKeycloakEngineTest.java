@@ -0,0 +1,111 @@
+package fullstack2.journalsystem_user;
+
+import fullstack2.journalsystem_user.config.TimedKeycloakEngine;
+import fullstack2.journalsystem_user.service.KeycloakCircuitBreaker;
+import fullstack2.journalsystem_user.service.LastKnown;
+import fullstack2.journalsystem_user.service.NegativeCache;
+import fullstack2.journalsystem_user.service.PasswordGrantClient;
+import fullstack2.journalsystem_user.service.RoleRegistry;
+import fullstack2.journalsystem_user.service.SingleFlight;
+import fullstack2.journalsystem_user.service.UserDirectory;
+import fullstack2.journalsystem_user.service.UserService;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.distribution.CountAtBucket;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.ws.rs.client.Client;
+import org.apache.http.impl.client.HttpClients;
+import org.jboss.resteasy.client.jaxrs.internal.ResteasyClientBuilderImpl;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.keycloak.OAuth2Constants;
+import org.keycloak.admin.client.JacksonProvider;
+import org.keycloak.admin.client.Keycloak;
+import org.keycloak.admin.client.KeycloakBuilder;
+
+import java.lang.reflect.Field;
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TimedKeycloakEngineTest {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private KeycloakStub stub;
+    private Client client;
+    private Keycloak keycloak;
+    private UserService service;
+
+    @BeforeEach
+    void setup() throws Exception {
+        stub = new KeycloakStub("journal", 0, 10);
+        client = new ResteasyClientBuilderImpl()
+                .httpEngine(new TimedKeycloakEngine(HttpClients.createDefault(), registry,
+                        new Duration[]{Duration.ofMillis(50), Duration.ofMillis(500)},
+                        new KeycloakCircuitBreaker(50, 20, 10, 10000, 3, 32, 100)))
+                .register(new JacksonProvider())
+                .build();
+        keycloak = KeycloakBuilder.builder()
+                .serverUrl(stub.getServerUrl())
+                .realm("journal")
+                .grantType(OAuth2Constants.CLIENT_CREDENTIALS)
+                .clientId("user-mgmt-service")
+                .clientSecret("secret")
+                .resteasyClient(client)
+                .build();
+
+        PasswordGrantClient passwordGrantClient = new PasswordGrantClient(client);
+        setField(passwordGrantClient, "realm", "journal");
+        setField(passwordGrantClient, "serverUrl", stub.getServerUrl());
+        setField(passwordGrantClient, "clientId", "user-mgmt-service");
+        setField(passwordGrantClient, "clientSecret", "secret");
+
+        RoleRegistry roleRegistry = new RoleRegistry(keycloak);
+        setField(roleRegistry, "realm", "journal");
+        service = new UserService(keycloak, roleRegistry, passwordGrantClient,
+                new UserDirectory(keycloak, roleRegistry, false, 120000), new SingleFlight<>("userLookups"), new NegativeCache(30, 1000),
+                new LastKnown<>("users", 1000, Duration.ofHours(1)));
+        setField(service, "realm", "journal");
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        keycloak.close();
+        stub.close();
+    }
+
+    @Test
+    @DisplayName("every Keycloak call is timed by operation, outcome and realm with SLO buckets")
+    void timesEveryCall() {
+        service.verifyAndGetUser("patient1", "pw");
+        service.findUserByUsername("patient2");
+        keycloak.realm("journal").users().get("user-patient1").toRepresentation();
+        assertThrows(RuntimeException.class, () -> keycloak.realm("journal").users().get("nobody").toRepresentation());
+
+        // one password grant plus the admin client's own service-account token
+        assertEquals(2, timer("token", "SUCCESS").count());
+        assertEquals(1, timer("search", "SUCCESS").count());
+        assertEquals(1, timer("roles.list", "SUCCESS").count());
+        assertEquals(1, timer("get", "SUCCESS").count());
+        assertEquals(1, timer("get", "CLIENT_ERROR").count());
+
+        CountAtBucket[] buckets = timer("search", "SUCCESS").takeSnapshot().histogramCounts();
+        assertEquals(2, buckets.length);
+        assertEquals(1, buckets[1].count());
+    }
+
+    private Timer timer(String operation, String outcome) {
+        Timer timer = registry.find(TimedKeycloakEngine.METRIC)
+                .tags("operation", operation, "outcome", outcome, "realm", "journal")
+                .timer();
+        assertNotNull(timer, operation + " " + outcome);
+        return timer;
+    }
+
+    private static void setField(Object target, String fieldName, Object value) throws Exception {
+        Field f = target.getClass().getDeclaredField(fieldName);
+        f.setAccessible(true);
+        f.set(target, value);
+    }
+}
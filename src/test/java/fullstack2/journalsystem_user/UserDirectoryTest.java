@@ -0,0 +1,187 @@
+package fullstack2.journalsystem_user;
+
+import fullstack2.journalsystem_user.service.RoleRegistry;
+import fullstack2.journalsystem_user.service.UserDirectory;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.keycloak.admin.client.Keycloak;
+import org.keycloak.admin.client.resource.*;
+import org.keycloak.representations.idm.UserRepresentation;
+
+import java.lang.reflect.Field;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+public class UserDirectoryTest {
+
+    private Keycloak keycloak;
+    private RoleRegistry roleRegistry;
+    private UsersResource users;
+    private RolesResource roles;
+
+    @BeforeEach
+    void setup() throws Exception {
+        keycloak = mock(Keycloak.class);
+        RealmResource realm = mock(RealmResource.class);
+        users = mock(UsersResource.class);
+        roles = mock(RolesResource.class);
+
+        when(keycloak.realm("journal")).thenReturn(realm);
+        when(realm.users()).thenReturn(users);
+        when(realm.roles()).thenReturn(roles);
+
+        roleRegistry = new RoleRegistry(keycloak);
+        setField(roleRegistry, "realm", "journal");
+
+        members("doctor", "kc-doc");
+        members("patient", "kc-pat");
+        members("employee");
+    }
+
+    @Test
+    @DisplayName("sync loads users with their tracked roles and attributes")
+    void sync_loadsUsersAndRoles() throws Exception {
+        when(users.search(null, 0, 100, false)).thenReturn(List.of(
+                user("kc-doc", "doc1", Map.of("organizationName", List.of("Org"))),
+                user("kc-pat", "pat1", Map.of())));
+        UserDirectory directory = directory(true, 120000);
+
+        assertTrue(directory.findByUsername("doc1").isEmpty(), "nothing is served before the first sync");
+        directory.sync();
+
+        UserDirectory.Entry doctor = directory.findByUsername("DOC1").orElseThrow();
+        assertTrue(doctor.hasRole("doctor"));
+        assertEquals("Org", doctor.attribute("organizationName"));
+        assertTrue(directory.findById("kc-pat").orElseThrow().hasRole("patient"));
+        assertEquals(1, directory.findByOrganization("Org", "doctor").orElseThrow().size());
+        assertEquals(0, directory.findByOrganization("Org", "employee").orElseThrow().size());
+    }
+
+    @Test
+    @DisplayName("a directory past its staleness bound answers nothing so callers go to Keycloak")
+    void stale_directoryIsNotServed() throws Exception {
+        when(users.search(null, 0, 100, false)).thenReturn(List.of(user("kc-doc", "doc1", Map.of())));
+        UserDirectory directory = directory(true, -1);
+
+        directory.sync();
+
+        assertEquals(1, directory.size());
+        assertTrue(directory.findByUsername("doc1").isEmpty());
+        assertTrue(directory.findByOrganization("Org", "doctor").isEmpty());
+    }
+
+    @Test
+    @DisplayName("write-through entries are visible at once; a later sync drops users missing upstream")
+    void writeThrough_andRemoval() throws Exception {
+        when(users.search(null, 0, 100, false)).thenReturn(List.of(user("kc-doc", "doc1", Map.of())));
+        UserDirectory directory = directory(true, 120000);
+        directory.sync();
+
+        UserRepresentation created = user(null, "pat2", Map.of("age", List.of("30")));
+        directory.put("kc-pat2", created, "patient");
+        directory.updateAttributes("kc-doc", Map.of("patients", List.of("pat2")));
+
+        assertEquals("kc-pat2", directory.findByUsername("pat2").orElseThrow().user().getId());
+        assertEquals(List.of("pat2"), directory.findById("kc-doc").orElseThrow().attributeValues("patients"));
+
+        // a pass that starts after the local writes is authoritative for users it no longer sees
+        when(users.search(null, 0, 100, false)).thenReturn(List.of());
+        Thread.sleep(2);
+        directory.sync();
+
+        assertTrue(directory.findById("kc-doc").isEmpty());
+        assertFalse(directory.findByUsername("pat2").isPresent());
+    }
+
+    @Test
+    @DisplayName("a failing sync keeps the previous replica")
+    void sync_failureKeepsReplica() throws Exception {
+        when(users.search(null, 0, 100, false))
+                .thenReturn(List.of(user("kc-doc", "doc1", Map.of())))
+                .thenThrow(new RuntimeException("keycloak down"));
+        UserDirectory directory = directory(true, 120000);
+
+        directory.sync();
+        directory.sync();
+
+        assertTrue(directory.findByUsername("doc1").isPresent());
+    }
+
+    @Test
+    @DisplayName("indexes follow organization changes and resolve panels when patients arrive later")
+    void indexes_trackWrites() throws Exception {
+        when(users.search(null, 0, 100, false)).thenReturn(List.of(
+                user("kc-doc", "doc1", Map.of("organizationName", List.of("Org"), "patients", List.of("pat1", "pat2"))),
+                user("kc-pat", "pat1", Map.of())));
+        UserDirectory directory = directory(true, 120000);
+        directory.sync();
+
+        assertEquals(List.of("doc1"), usernames(directory.findByOrganization("Org", "doctor").orElseThrow()));
+        assertEquals(List.of("pat1"), usernames(directory.findByRole("patient").orElseThrow()));
+        assertTrue(directory.findPatientsOf("doc1").isEmpty(), "pat2 is listed but not in the directory yet");
+
+        directory.put("kc-pat2", user(null, "pat2", Map.of()), "patient");
+        assertEquals(List.of("pat1", "pat2"), usernames(directory.findPatientsOf("doc1").orElseThrow()));
+
+        directory.updateAttributes("kc-doc", Map.of("organizationName", List.of("Other"), "patients", List.of("pat2")));
+        assertTrue(directory.findByOrganization("Org", "doctor").orElseThrow().isEmpty());
+        assertEquals(List.of("doc1"), usernames(directory.findByOrganization("Other", "doctor").orElseThrow()));
+        assertEquals(List.of("pat2"), usernames(directory.findPatientsOf("doc1").orElseThrow()));
+    }
+
+    @Test
+    @DisplayName("index sizes and rebuild time are published as gauges")
+    void indexes_metrics() throws Exception {
+        when(users.search(null, 0, 100, false)).thenReturn(List.of(
+                user("kc-doc", "doc1", Map.of("organizationName", List.of("Org"), "patients", List.of("pat1"))),
+                user("kc-pat", "pat1", Map.of())));
+        UserDirectory directory = directory(true, 120000);
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        directory.bindTo(registry);
+        directory.sync();
+
+        assertEquals(1, registry.get("journal.directory.index.size").tag("index", "organization").gauge().value());
+        assertEquals(2, registry.get("journal.directory.index.size").tag("index", "role").gauge().value());
+        assertEquals(1, registry.get("journal.directory.index.size").tag("index", "doctor-patients").gauge().value());
+        assertTrue(registry.get("journal.directory.index.rebuild.ms").gauge().value() >= 0);
+    }
+
+    private static List<String> usernames(List<UserDirectory.Entry> entries) {
+        return entries.stream().map(entry -> entry.user().getUsername()).sorted().toList();
+    }
+
+    private UserDirectory directory(boolean enabled, long maxStalenessMs) throws Exception {
+        UserDirectory directory = new UserDirectory(keycloak, roleRegistry, enabled, maxStalenessMs);
+        setField(directory, "realm", "journal");
+        return directory;
+    }
+
+    private void members(String roleName, String... userIds) {
+        RoleResource role = mock(RoleResource.class);
+        when(roles.get(roleName)).thenReturn(role);
+        List<UserRepresentation> members = Arrays.stream(userIds)
+                .map(id -> user(id, null, Map.of()))
+                .toList();
+        when(role.getUserMembers(true, 0, 100)).thenReturn(members);
+    }
+
+    private static UserRepresentation user(String id, String username, Map<String, List<String>> attributes) {
+        UserRepresentation user = new UserRepresentation();
+        user.setId(id);
+        user.setUsername(username);
+        user.setAttributes(attributes);
+        return user;
+    }
+
+    private static void setField(Object target, String fieldName, Object value) throws Exception {
+        Field f = target.getClass().getDeclaredField(fieldName);
+        f.setAccessible(true);
+        f.set(target, value);
+    }
+}
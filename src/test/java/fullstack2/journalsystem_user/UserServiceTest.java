@@ -2,15 +2,25 @@ package fullstack2.journalsystem_user;
 
 import fullstack2.journalsystem_user.Models.CreateUserModel;
 import fullstack2.journalsystem_user.Models.LocalUser;
+import fullstack2.journalsystem_user.Models.LoginResult;
+import fullstack2.journalsystem_user.service.LastKnown;
+import fullstack2.journalsystem_user.service.NegativeCache;
+import fullstack2.journalsystem_user.service.PasswordGrantClient;
+import fullstack2.journalsystem_user.service.RoleRegistry;
+import fullstack2.journalsystem_user.service.SingleFlight;
+import fullstack2.journalsystem_user.service.UserDirectory;
 import fullstack2.journalsystem_user.service.UserService;
+import com.nimbusds.jwt.JWTClaimsSet;
+import com.nimbusds.jwt.PlainJWT;
+import jakarta.ws.rs.NotFoundException;
 import jakarta.ws.rs.core.Response;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
-import org.keycloak.OAuth2Constants;
 import org.keycloak.admin.client.Keycloak;
 import org.keycloak.admin.client.resource.RealmResource;
 import org.keycloak.admin.client.resource.RoleMappingResource;
+import org.keycloak.admin.client.resource.RoleResource;
 import org.keycloak.admin.client.resource.RoleScopeResource;
 import org.keycloak.admin.client.resource.RolesResource;
 import org.keycloak.admin.client.resource.UserResource;
@@ -18,10 +28,13 @@ import org.keycloak.admin.client.resource.UsersResource;
 import org.keycloak.representations.AccessTokenResponse;
 import org.keycloak.representations.idm.RoleRepresentation;
 import org.keycloak.representations.idm.UserRepresentation;
-import org.mockito.MockedStatic;
+import org.springframework.security.oauth2.jwt.Jwt;
 
 import java.lang.reflect.Field;
+import java.time.Duration;
+import java.util.Date;
 import java.util.List;
+import java.util.Map;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.Mockito.*;
@@ -30,6 +43,9 @@ public class UserServiceTest {
 
     private Keycloak keycloak;                 // admin client (injected)
     private UserService service;
+    private RoleRegistry roleRegistry;
+    private PasswordGrantClient passwordGrantClient;
+    private NegativeCache negativeCache;
 
     // chain mocks
     private RealmResource realmResource;
@@ -42,7 +58,13 @@ public class UserServiceTest {
     @BeforeEach
     void setup() throws Exception {
         keycloak = mock(Keycloak.class);
-        service = new UserService(keycloak);
+        roleRegistry = new RoleRegistry(keycloak);
+        setField(roleRegistry, "realm", "journal");
+        passwordGrantClient = mock(PasswordGrantClient.class);
+        negativeCache = new NegativeCache(30, 1000);
+        service = new UserService(keycloak, roleRegistry, passwordGrantClient,
+                new UserDirectory(keycloak, roleRegistry, false, 120000), new SingleFlight<>("userLookups"), negativeCache,
+                new LastKnown<>("users", 1000, Duration.ofHours(1)));
 
         // inject @Value fields via reflection
         setField(service, "realm", "journal");
@@ -102,6 +124,34 @@ public class UserServiceTest {
         assertTrue(result == null || result.getUserId() == null);
     }
 
+    @Test
+    @DisplayName("findUserByUsername answers a repeated miss without Keycloak until the name is registered")
+    void findUserByUsername_remembersMisses() {
+        when(usersResource.searchByUsername("ghost", true)).thenReturn(List.of());
+
+        for (int i = 0; i < 5; i++) {
+            assertNull(service.findUserByUsername("ghost").getUserId());
+        }
+        assertNull(service.findUserByUsername("GHOST").getUserId());
+        verify(usersResource, times(1)).searchByUsername("ghost", true);
+        assertTrue(negativeCache.isUnknownUsername("ghost"));
+
+        Response resp = mock(Response.class);
+        when(resp.getStatus()).thenReturn(201);
+        when(resp.getLocation()).thenReturn(java.net.URI.create("http://keycloak:8080/admin/realms/journal/users/kc-9"));
+        when(resp.getStatusInfo()).thenReturn(Response.Status.CREATED);
+        when(usersResource.create(any(UserRepresentation.class))).thenReturn(resp);
+        RoleResource patientRoleResource = mock(RoleResource.class);
+        when(rolesResource.get("patient")).thenReturn(patientRoleResource);
+        when(patientRoleResource.toRepresentation()).thenReturn(new RoleRepresentation());
+
+        service.registerNewUser(new CreateUserModel("ghost", "g@x", "p", "f", "l", "patient"));
+
+        assertFalse(negativeCache.isUnknownUsername("ghost"));
+        service.findUserByUsername("ghost");
+        verify(usersResource, times(2)).searchByUsername("ghost", true);
+    }
+
     @Test
     @DisplayName("registerNewUser throws when Keycloak create != 201")
     void registerNewUser_throws_onBadStatus() {
@@ -116,12 +166,8 @@ public class UserServiceTest {
 
     @Test
     @DisplayName("verifyAndGetUser returns LocalUser when password flow succeeds")
-    void verifyAndGetUser_success() throws Exception {
-        // mock KeycloakBuilder.builder() static -> returns builder that builds a Keycloak user client
-        Keycloak userClient = mock(Keycloak.class);
-        var tokenManager = mock(org.keycloak.admin.client.token.TokenManager.class);
-        when(userClient.tokenManager()).thenReturn(tokenManager);
-        when(tokenManager.getAccessToken()).thenReturn(new AccessTokenResponse()); // success means password ok
+    void verifyAndGetUser_success() {
+        when(passwordGrantClient.grantToken("pat1", "pw")).thenReturn(new AccessTokenResponse()); // success means password ok
 
         // search user through admin client after success
         UserRepresentation u = new UserRepresentation();
@@ -134,31 +180,154 @@ public class UserServiceTest {
         patientRole.setName("patient");
         when(realmLevelScope.listAll()).thenReturn(List.of(patientRole));
 
-        // Static mock KeycloakBuilder
-        try (MockedStatic<org.keycloak.admin.client.KeycloakBuilder> mocked = mockStatic(org.keycloak.admin.client.KeycloakBuilder.class)) {
-            var builder = mock(org.keycloak.admin.client.KeycloakBuilder.class);
+        LocalUser result = service.verifyAndGetUser("pat1", "pw");
+
+        assertNotNull(result);
+        assertEquals("kc-777", result.getUserId());
+        assertEquals("pat1", result.getUserName());
+        assertEquals("patient", result.getRole());
+
+        verify(passwordGrantClient).grantToken("pat1", "pw");
+    }
 
-            mocked.when(org.keycloak.admin.client.KeycloakBuilder::builder).thenReturn(builder);
+    @Test
+    @DisplayName("login reads the user from the issued token and returns the token")
+    void login_readsUserFromToken() {
+        String token = new PlainJWT(new JWTClaimsSet.Builder()
+                .subject("kc-777")
+                .claim("preferred_username", "pat1")
+                .claim("email", "pat1@x")
+                .claim("realm_access", Map.of("roles", List.of("patient")))
+                .expirationTime(new Date(System.currentTimeMillis() + 300_000))
+                .build()).serialize();
+        AccessTokenResponse tokens = new AccessTokenResponse();
+        tokens.setToken(token);
+        tokens.setExpiresIn(300);
+        when(passwordGrantClient.grantToken("pat1", "pw")).thenReturn(tokens);
+
+        LoginResult result = service.login("pat1", "pw");
+
+        assertEquals("kc-777", result.getUser().getUserId());
+        assertEquals("pat1", result.getUser().getUserName());
+        assertEquals("patient", result.getUser().getRole());
+        assertEquals(token, result.getAccessToken());
+        assertEquals(300, result.getExpiresIn());
+        verifyNoInteractions(keycloak);
+    }
 
-            when(builder.serverUrl(anyString())).thenReturn(builder);
-            when(builder.realm(anyString())).thenReturn(builder);
-            when(builder.clientId(anyString())).thenReturn(builder);
-            when(builder.clientSecret(anyString())).thenReturn(builder);
-            when(builder.username(anyString())).thenReturn(builder);
-            when(builder.password(anyString())).thenReturn(builder);
-            when(builder.grantType(anyString())).thenReturn(builder);
-            when(builder.build()).thenReturn(userClient);
+    @Test
+    @DisplayName("verifyAndGetUser does not look the user up when the password grant fails")
+    void verifyAndGetUser_badPassword() {
+        when(passwordGrantClient.grantToken("pat1", "wrong")).thenThrow(new RuntimeException("Password grant failed with status: 401"));
 
-            LocalUser result = service.verifyAndGetUser("pat1", "pw");
+        assertThrows(RuntimeException.class, () -> service.verifyAndGetUser("pat1", "wrong"));
+        verify(usersResource, never()).searchByUsername(anyString(), anyBoolean());
+    }
 
-            assertNotNull(result);
-            assertEquals("kc-777", result.getUserId());
-            assertEquals("pat1", result.getUserName());
-            assertEquals("patient", result.getRole());
+    @Test
+    @DisplayName("currentUser is built from the token claims without asking Keycloak")
+    void currentUser_fromClaims() {
+        Jwt jwt = Jwt.withTokenValue("t")
+                .header("alg", "RS256")
+                .subject("kc-777")
+                .claim("preferred_username", "doc1")
+                .claim("email", "doc1@x")
+                .claim("realm_access", Map.of("roles", List.of("offline_access", "doctor")))
+                .build();
+
+        LocalUser result = service.currentUser(jwt);
+
+        assertEquals("kc-777", result.getUserId());
+        assertEquals("doc1", result.getUserName());
+        assertEquals("doc1@x", result.getEmail());
+        assertEquals("doctor", result.getRole());
+        verifyNoInteractions(keycloak);
+    }
 
-            verify(builder).grantType(OAuth2Constants.PASSWORD);
-            verify(tokenManager).getAccessToken();
-        }
+    @Test
+    @DisplayName("currentUser fills claims missing from the token from Keycloak")
+    void currentUser_fillsMissingClaims() {
+        Jwt jwt = Jwt.withTokenValue("t")
+                .header("alg", "RS256")
+                .subject("kc-777")
+                .claim("preferred_username", "pat1")
+                .build();
+
+        UserRepresentation u = new UserRepresentation();
+        u.setId("kc-777");
+        u.setUsername("pat1");
+        u.setEmail("pat1@x");
+        when(usersResource.searchByUsername("pat1", true)).thenReturn(List.of(u));
+        RoleRepresentation patientRole = new RoleRepresentation();
+        patientRole.setName("patient");
+        when(realmLevelScope.listAll()).thenReturn(List.of(patientRole));
+
+        LocalUser result = service.currentUser(jwt);
+
+        assertEquals("kc-777", result.getUserId());
+        assertEquals("pat1@x", result.getEmail());
+        assertEquals("patient", result.getRole());
+    }
+
+    @Test
+    @DisplayName("currentUser leaves a missing email empty instead of asking Keycloak")
+    void currentUser_missingEmailIsNotFetched() {
+        Jwt jwt = Jwt.withTokenValue("t")
+                .header("alg", "RS256")
+                .subject("kc-778")
+                .claim("preferred_username", "pat2")
+                .claim("realm_access", Map.of("roles", List.of("patient")))
+                .build();
+
+        LocalUser result = service.currentUser(jwt);
+
+        assertEquals("pat2", result.getUserName());
+        assertEquals("patient", result.getRole());
+        assertNull(result.getEmail());
+        verifyNoInteractions(keycloak);
+    }
+
+    @Test
+    @DisplayName("currentUser without a username survives a subject unknown to Keycloak and remembers the miss")
+    void currentUser_unknownSubject() {
+        Jwt jwt = Jwt.withTokenValue("t")
+                .header("alg", "RS256")
+                .subject("kc-gone")
+                .build();
+        when(userResource.toRepresentation()).thenThrow(new NotFoundException());
+
+        LocalUser first = service.currentUser(jwt);
+        LocalUser second = service.currentUser(jwt);
+
+        assertEquals("kc-gone", first.getUserId());
+        assertNull(first.getUserName());
+        assertEquals("kc-gone", second.getUserId());
+        verify(userResource, times(1)).toRepresentation();
+    }
+
+    @Test
+    @DisplayName("registerNewUser resolves a realm role only once across registrations")
+    void registerNewUser_cachesRoleRepresentation() {
+        Response resp = mock(Response.class);
+        when(resp.getStatus()).thenReturn(201);
+        when(resp.getLocation()).thenReturn(java.net.URI.create("http://keycloak:8080/admin/realms/journal/users/kc-1"));
+        when(resp.getStatusInfo()).thenReturn(Response.Status.CREATED);
+        when(usersResource.create(any(UserRepresentation.class))).thenReturn(resp);
+
+        RoleResource patientRoleResource = mock(RoleResource.class);
+        RoleRepresentation patientRole = new RoleRepresentation();
+        patientRole.setName("patient");
+        when(rolesResource.get("patient")).thenReturn(patientRoleResource);
+        when(patientRoleResource.toRepresentation()).thenReturn(patientRole);
+
+        service.registerNewUser(new CreateUserModel("u1", "e1", "p", "f", "l", "patient"));
+        service.registerNewUser(new CreateUserModel("u2", "e2", "p", "f", "l", "patient"));
+
+        verify(patientRoleResource, times(1)).toRepresentation();
+        verify(realmLevelScope, times(2)).add(List.of(patientRole));
+
+        roleRegistry.reload();
+        verify(patientRoleResource, times(2)).toRepresentation();
     }
 
     // ----- helper -----
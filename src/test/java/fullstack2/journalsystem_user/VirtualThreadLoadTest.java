@@ -0,0 +1,172 @@
+package fullstack2.journalsystem_user;
+
+import fullstack2.journalsystem_user.Models.LocalUser;
+import fullstack2.journalsystem_user.service.FanOutExecutor;
+import fullstack2.journalsystem_user.service.LastKnown;
+import fullstack2.journalsystem_user.service.NegativeCache;
+import fullstack2.journalsystem_user.service.RoleRegistry;
+import fullstack2.journalsystem_user.service.SingleFlight;
+import fullstack2.journalsystem_user.service.UserDirectory;
+import fullstack2.journalsystem_user.service.UserService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.jboss.resteasy.client.jaxrs.internal.ResteasyClientBuilderImpl;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledForJreRange;
+import org.junit.jupiter.api.condition.JRE;
+import org.keycloak.OAuth2Constants;
+import org.keycloak.admin.client.Keycloak;
+import org.keycloak.admin.client.KeycloakBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+
+import java.lang.reflect.Field;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Serves requests that each fan out Keycloak lookups with injected latency through the application's
+ * {@link FanOutExecutor}, once as with {@code spring.threads.virtual.enabled=false} (a fixed request
+ * pool, scaled down from Tomcat's 200 threads) and once with it on (virtual request threads and a
+ * virtual-thread fan-out). The fan-out cap admits every lookup at once in both modes, so the request
+ * pool is the only bottleneck; virtual threads must clearly beat it. Every lookup must be answered on
+ * the expected kind of thread. Excluded from the regular build, as it measures wall-clock throughput;
+ * run with {@code mvn -Pjava21,load-test test} on a Java 21 JDK.
+ */
+@Tag("load")
+@EnabledForJreRange(min = JRE.JAVA_21)
+public class VirtualThreadLoadTest {
+
+    private static final Logger log = LoggerFactory.getLogger(VirtualThreadLoadTest.class);
+
+    private static final int REQUESTS = 100;
+    private static final int PANEL_SIZE = 4;
+    private static final int PLATFORM_THREADS = 10;
+    // High enough that the fan-out never queues, in either mode
+    private static final int FAN_OUT_CONCURRENCY = REQUESTS * PANEL_SIZE;
+    private static final double MIN_SPEEDUP = 2.0;
+    private static final long KEYCLOAK_LATENCY_MS = 200;
+
+    private KeycloakStub stub;
+    private Keycloak keycloak;
+    private UserService service;
+
+    @BeforeEach
+    void setup() throws Exception {
+        stub = new KeycloakStub("journal", KEYCLOAK_LATENCY_MS, REQUESTS * PANEL_SIZE);
+        keycloak = KeycloakBuilder.builder()
+                .serverUrl(stub.getServerUrl())
+                .realm("journal")
+                .grantType(OAuth2Constants.CLIENT_CREDENTIALS)
+                .clientId("user-mgmt-service")
+                .clientSecret("secret")
+                .resteasyClient(new ResteasyClientBuilderImpl()
+                        .connectionPoolSize(REQUESTS * PANEL_SIZE)
+                        .maxPooledPerRoute(REQUESTS * PANEL_SIZE)
+                        .build())
+                .build();
+
+        RoleRegistry roleRegistry = new RoleRegistry(keycloak);
+        setField(roleRegistry, "realm", "journal");
+        service = new UserService(keycloak, roleRegistry, null,
+                new UserDirectory(keycloak, roleRegistry, false, 120000), new SingleFlight<>("userLookups"), new NegativeCache(30, 1000),
+                new LastKnown<>("users", 1000, Duration.ofHours(1)));
+        setField(service, "realm", "journal");
+
+        // warm up the admin token and connections outside the measurement
+        service.findUserByUsername("patient0");
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        keycloak.close();
+        stub.close();
+    }
+
+    @Test
+    @DisplayName("virtual threads serve fan-out lookups with clearly higher throughput than a saturated request pool")
+    void virtualThreadsOutperformSaturatedRequestPool() throws Exception {
+        ExecutorService platformRequests = Executors.newFixedThreadPool(PLATFORM_THREADS);
+        FanOutExecutor platformFanOut = new FanOutExecutor(FAN_OUT_CONCURRENCY, 5000, false, new SimpleMeterRegistry());
+        double platformThroughput;
+        try {
+            platformThroughput = run(platformRequests, platformFanOut, false);
+        } finally {
+            platformRequests.shutdownNow();
+            platformFanOut.shutdown();
+        }
+
+        SimpleAsyncTaskExecutor virtualRequests = new SimpleAsyncTaskExecutor("request-");
+        virtualRequests.setVirtualThreads(true);
+        FanOutExecutor virtualFanOut = new FanOutExecutor(FAN_OUT_CONCURRENCY, 5000, true, new SimpleMeterRegistry());
+        double virtualThroughput;
+        try {
+            virtualThroughput = run(virtualRequests, virtualFanOut, true);
+        } finally {
+            virtualRequests.close();
+            virtualFanOut.shutdown();
+        }
+
+        log.info("{} requests with {} lookups each: platform ({} request threads) {} req/s, virtual {} req/s",
+                REQUESTS, PANEL_SIZE, PLATFORM_THREADS, Math.round(platformThroughput), Math.round(virtualThroughput));
+        assertTrue(virtualThroughput > platformThroughput * MIN_SPEEDUP,
+                "expected virtual threads to serve at least " + MIN_SPEEDUP + "x the requests of " + PLATFORM_THREADS
+                        + " platform request threads");
+    }
+
+    private double run(Executor requests, FanOutExecutor fanOut, boolean virtual) {
+        AtomicInteger found = new AtomicInteger();
+        AtomicInteger onExpectedThread = new AtomicInteger();
+        List<CompletableFuture<Void>> pending = new ArrayList<>(REQUESTS);
+        long start = System.nanoTime();
+        for (int i = 0; i < REQUESTS; i++) {
+            List<String> panel = new ArrayList<>(PANEL_SIZE);
+            for (int j = 0; j < PANEL_SIZE; j++) {
+                panel.add("patient" + (i * PANEL_SIZE + j));
+            }
+            pending.add(CompletableFuture.runAsync(() -> {
+                List<LocalUser> users = fanOut.mapAll(panel, username -> {
+                    if (isVirtual(Thread.currentThread()) == virtual) {
+                        onExpectedThread.incrementAndGet();
+                    }
+                    return service.findUserByUsername(username);
+                });
+                users.stream().filter(user -> "patient".equals(user.getRole())).forEach(user -> found.incrementAndGet());
+            }, requests));
+        }
+        CompletableFuture.allOf(pending.toArray(CompletableFuture[]::new)).join();
+        double seconds = (System.nanoTime() - start) / 1_000_000_000.0;
+
+        assertEquals(REQUESTS * PANEL_SIZE, found.get());
+        assertEquals(REQUESTS * PANEL_SIZE, onExpectedThread.get(),
+                virtual ? "fan-out calls should run on virtual threads" : "fan-out calls should run on the platform pool");
+        return REQUESTS / seconds;
+    }
+
+    // Thread.isVirtual is Java 21 API and the regular build targets 17
+    private static boolean isVirtual(Thread thread) {
+        try {
+            return (boolean) Thread.class.getMethod("isVirtual").invoke(thread);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void setField(Object target, String fieldName, Object value) throws Exception {
+        Field f = target.getClass().getDeclaredField(fieldName);
+        f.setAccessible(true);
+        f.set(target, value);
+    }
+}